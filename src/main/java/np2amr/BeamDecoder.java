@@ -1,60 +1,118 @@
 package np2amr;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
 import np2amr.action.Action;
-import org.apache.commons.lang3.tuple.ImmutableTriple;
-import org.apache.commons.lang3.tuple.Triple;
 
 public class BeamDecoder {
 
     public final int beamSize;
 
+    // statistics of feature caches over all calls of decode()
+    public final LongAdder cacheHits = new LongAdder();
+    public final LongAdder cacheMisses = new LongAdder();
+
     public BeamDecoder(int beamSize) {
         this.beamSize = beamSize;
     }
-    
+
+    /**
+     * Returns hit rate of feature caches since the last call, and resets the counts.
+     * @return 
+     */
+    public String flushCacheStats() {
+        long hits = cacheHits.sumThenReset();
+        long misses = cacheMisses.sumThenReset();
+        long total = hits + misses;
+        return String.format("%.1f%% [%d/%d]", total == 0 ? 0. : hits * 100. / total, hits, total);
+    }
+
+    /**
+     * Expansion of a beam item that has not been applied yet.
+     * States are only created for candidates that survive in the beam.
+     */
+    private static final class Candidate {
+        final State state;
+        final Action action;
+        final float score;
+        final int order;    // order of generation, used to break ties
+
+        Candidate(State state, Action action, float score, int order) {
+            this.state = state;
+            this.action = action;
+            this.score = score;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Orders candidates from worse to better.
+     * Among candidates with the same score, the one generated earlier is better.
+     */
+    private static final Comparator<Candidate> WORST_FIRST = (c1, c2) -> {
+        int cmp = Float.compare(c1.score, c2.score);
+        return cmp != 0 ? cmp : Integer.compare(c2.order, c1.order);
+    };
+
     public State decode(State initState, LinearScorer scorer) {
+        return decode(initState, scorer, new FeatureCache(initState.toks));
+    }
+
+    /**
+     * Decodes with the beam, reusing atomic features in cache.
+     * @param initState
+     * @param scorer
+     * @param cache feature cache for the sentence of initState
+     * @return final state with the best score
+     */
+    public State decode(State initState, LinearScorer scorer, FeatureCache cache) {
+        long hits = cache.hits;
+        long misses = cache.misses;
         List<State> kBest = new ArrayList<>();
         kBest.add(initState);
+        // min-heap of the best candidates found so far, the worst one on top
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(beamSize + 1, WORST_FIRST);
+        float[] scores = new float[0];    // reused across steps, grown when needed
         while (!kBest.get(0).isFinal()) {
-            List<Triple<State, Action, Float>> cands = new ArrayList<>();
+            int order = 0;
             for (State s: kBest) {
                 List<Action> actions = s.validActions();
-                List<Float> scores = scorer.score(s, actions);
-                for (int i = 0; i < scores.size(); i++) {
-                    Action a = actions.get(i);
-                    float newScore = s.score + scores.get(i);
-                    //System.err.format("%s\t%s\n", a, newScore);
-                    cands.add(new ImmutableTriple<>(s, a, newScore));
+                int size = actions.size();
+                if (scores.length < size) {
+                    scores = new float[Math.max(size, 2 * scores.length)];
+                }
+                scorer.score(s, actions, scores, cache);
+                for (int i = 0; i < size; i++) {
+                    float newScore = s.score + scores[i];
+                    //System.err.format("%s\t%s\n", actions.get(i), newScore);
+                    if (heap.size() < beamSize) {
+                        heap.add(new Candidate(s, actions.get(i), newScore, order));
+                    } else if (newScore > heap.peek().score) {
+                        // ties are resolved in favor of the candidate already in the heap
+                        heap.poll();
+                        heap.add(new Candidate(s, actions.get(i), newScore, order));
+                    }
+                    order++;
                 }
             }
 
-            // sort candidates in decreasing order
-            cands.sort((t1, t2) -> Double.compare(t2.getRight(), t1.getRight()));
+            // sort survivors in decreasing order
+            List<Candidate> survivors = new ArrayList<>(heap);
+            heap.clear();
+            survivors.sort(WORST_FIRST.reversed());
 
-            /*
-            for (Triple<State, Action, Float> c: cands) {
-                State s = c.getLeft();
-                Action a = c.getMiddle();
-                float score = c.getRight();
-                System.err.format("%s\t%s\t%s\n", s.concept, a, score);
-            }
-            System.err.println();
-                    */
-            
-            int count = Math.min(beamSize, cands.size());
             kBest = new ArrayList<>();
-            for (int i = 0; i < count; i++) {
-                Triple<State, Action, Float> t = cands.get(i);
-                State s = t.getLeft();
-                Action a = t.getMiddle();
-                float newScore = t.getRight();
-                State nextState = s.next(a, newScore);
+            for (Candidate c: survivors) {
+                State nextState = c.state.next(c.action, c.score);
                 kBest.add(nextState);
             }
         }
-            
+
+        cacheHits.add(cache.hits - hits);
+        cacheMisses.add(cache.misses - misses);
         return kBest.get(0);
     }
 }
@@ -22,6 +22,7 @@ import np2amr.feature.PosFeature;
 import np2amr.feature.Suffix2Feature;
 import np2amr.feature.Suffix3Feature;
 import np2amr.feature.WordnetFeature;
+import np2amr.preprocess.PcfgPreprocessor;
 import org.apache.commons.lang3.tuple.Pair;
 
 /**
@@ -39,6 +40,7 @@ public class Config {
     public static final String STRING2ID_NAME = "string_id_map";
     public static final String LABELS_NAME = "labels";
     public static final String CONCEPT_TABLE_NAME = "concept_table";
+    public static final String PREPROCESSOR_NAME = "preprocessor";
 
     public static final String ROOT_LABEL = "root";
 
@@ -108,6 +110,11 @@ public class Config {
     }
     public static WeightsType weightsType = null;
 
+    /**
+     * Name of the preprocessor the model is trained with.
+     */
+    public static String preprocessorName = PcfgPreprocessor.NAME;
+
     public static void setConfig(Path dataPath, Map<Integer, Set<Concept>> conceptTable, Set<Integer> labelIds, String wndictPath, List<String> featureStrs, WeightsType weightsType) throws IOException {
 
         Path noun2VerbPath = dataPath.resolve(N2V_NAME);
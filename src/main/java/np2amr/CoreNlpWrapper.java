@@ -1,44 +1,219 @@
 package np2amr;
 
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.trees.EnglishGrammaticalStructureFactory;
-import edu.stanford.nlp.trees.Tree;
-import edu.stanford.nlp.trees.TreeCoreAnnotations;
-import edu.stanford.nlp.trees.TypedDependency;
-import edu.stanford.nlp.util.CoreMap;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Properties;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import np2amr.preprocess.Analysis;
+import np2amr.preprocess.PcfgPreprocessor;
+import np2amr.preprocess.Preprocessor;
 
+/**
+ * Gives lemmas, POS tags and dependencies to sentences with the preprocessor set by setPreprocessor(),
+ * the PCFG parser of CoreNLP by default. Results are mapped to ids and cached.
+ */
 public class CoreNlpWrapper {
 
-    private static final StanfordCoreNLP parser;
-    private static final Map<List, Collection> mem;
-    private static final Map<List, List> posMem;
-    private static final Map<List, List> lemMem;
+    private static volatile Preprocessor preprocessor = null;   // created on first use if not set
 
-    private static final EnglishGrammaticalStructureFactory egsf = new EnglishGrammaticalStructureFactory();
+    // parses of recently used sentences
+    private static volatile LruCache<List<Integer>, Parse> mem;
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    // nanoseconds spent in each stage, summed over threads
+    private static final LongAdder analysisTime = new LongAdder();
+    private static final LongAdder idTime = new LongAdder();
+
+    // threads used by annotate(), null to annotate on the calling thread
+    private static ExecutorService pool = null;
 
     static {
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize,ssplit,pos,lemma,parse");
-        parser = new StanfordCoreNLP(props);
-        mem = new HashMap<>();
-        posMem = new HashMap<>();
-        lemMem = new HashMap<>();
+        mem = new LruCache<>(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Sets the preprocessor used from now on. Cached parses are discarded.
+     * Models must be trained and tested with the same kind of preprocessor.
+     * @param p
+     */
+    public static void setPreprocessor(Preprocessor p) {
+        preprocessor = p;
+        mem.clear();
+    }
+
+    private static Preprocessor preprocessor() {
+        Preprocessor p = preprocessor;
+        if (p == null) {
+            synchronized (CoreNlpWrapper.class) {
+                if (preprocessor == null) {
+                    preprocessor = new PcfgPreprocessor();
+                }
+                p = preprocessor;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Sets the maximum number of sentences whose parses are kept. Cached parses are discarded.
+     * @param size
+     */
+    public static void setCacheSize(int size) {
+        mem = new LruCache<>(size);
+    }
+
+    /**
+     * Returns statistics of the cache of parses since the last call, and resets them.
+     * @return
+     */
+    public static String flushCacheStats() {
+        return mem.flushStats();
+    }
+
+    /**
+     * Sets the number of threads annotate() uses.
+     * @param threads
+     */
+    public static synchronized void setThreads(int threads) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (threads > 1) {
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread th = new Thread(r, "corenlp");
+                th.setDaemon(true);
+                return th;
+            });
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Lemmas, POS tags and dependencies of a sentence, indexed by 0-origin token indices.
+     */
+    public static final class Parse {
+        public final int[] lemmaIds;
+        public final int[] posIds;
+        public final int[] depHeads;    // 1-origin index of the head, 0 for the root, -1 if there's no dependency
+        public final int[] depRelIds;   // -1 if there's no dependency
+
+        Parse(int[] lemmaIds, int[] posIds, int[] depHeads, int[] depRelIds) {
+            this.lemmaIds = lemmaIds;
+            this.posIds = posIds;
+            this.depHeads = depHeads;
+            this.depRelIds = depRelIds;
+        }
+    }
+
+    /**
+     * Parses sentences with the threads set by setThreads(), and returns the results in the input order.
+     * Ids of new strings are the same as when the sentences are parsed one by one in the input order.
+     * Results are cached, so following calls of parse() for these sentences don't parse again unless evicted.
+     * @param sentences token ids of sentences
+     * @return
+     */
+    public static List<Parse> annotate(List<List<Integer>> sentences) {
+        ExecutorService pool;
+        synchronized (CoreNlpWrapper.class) {
+            pool = CoreNlpWrapper.pool;
+        }
+        List<Parse> res = new ArrayList<>(sentences.size());
+        if (pool == null) {
+            for (List<Integer> toks: sentences) {
+                res.add(parse(toks));
+            }
+        } else {
+            List<Parse> cached = new ArrayList<>(sentences.size());
+            List<Future<Analysis>> futures = new ArrayList<>(sentences.size());
+            for (List<Integer> toks: sentences) {
+                Parse p = mem.get(toks);
+                cached.add(p);
+                futures.add(p != null ? null : pool.submit(() -> process(toks)));
+            }
+            try {
+                // map strings to ids in the input order, so that ids don't depend on the number of threads
+                for (int i = 0; i < sentences.size(); i++) {
+                    Parse p = cached.get(i);
+                    if (p == null) {
+                        p = store(sentences.get(i), futures.get(i).get());
+                    }
+                    res.add(p);
+                }
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new RuntimeException("Failed to parse a sentence.", ex);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Runs the preprocessor on sentences with the threads set by setThreads(), and returns the results in the input order.
+     * Unlike annotate(), no string is mapped to an id here, so ids are given in the order sentences are later passed to parse(toks, a).
+     * Without threads, sentences are not analyzed ahead, and nulls are returned.
+     * @param sentences tokens of sentences
+     * @return analyses in the input order, null for sentences whose parses are cached or whose analysis failed
+     */
+    public static List<Analysis> analyze(List<List<String>> sentences) {
+        ExecutorService pool;
+        synchronized (CoreNlpWrapper.class) {
+            pool = CoreNlpWrapper.pool;
+        }
+        List<Analysis> res = new ArrayList<>(sentences.size());
+        if (pool == null) {
+            for (int i = 0; i < sentences.size(); i++) {
+                res.add(null);
+            }
+            return res;
+        }
+        List<Future<Analysis>> futures = new ArrayList<>(sentences.size());
+        for (List<String> tokStrs: sentences) {
+            futures.add(isCached(tokStrs) ? null : pool.submit(() -> processTokens(tokStrs)));
+        }
+        for (Future<Analysis> f: futures) {
+            Analysis a = null;
+            if (f != null) {
+                try {
+                    a = f.get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    // the sentence is analyzed again by parse(), and errors are handled there
+                }
+            }
+            res.add(a);
+        }
+        return res;
+    }
+
+    /**
+     * Returns true if the parse of a sentence is cached. Strings not seen yet are not registered.
+     */
+    private static boolean isCached(List<String> tokStrs) {
+        List<Integer> toks = new ArrayList<>(tokStrs.size());
+        for (String tokStr: tokStrs) {
+            Integer id = Config.stringIdMap.str2id.get(tokStr);
+            if (id == null) {
+                return false;
+            }
+            toks.add(id);
+        }
+        return mem.get(toks) != null;
+    }
+
+    /**
+     * Returns time spent in each stage of parsing since the last call, and resets them.
+     * Times are summed over threads.
+     * @return
+     */
+    public static String flushTimings() {
+        return String.format("analysis %.1f sec, id mapping %.1f sec",
+                analysisTime.sumThenReset() / 1e9, idTime.sumThenReset() / 1e9);
     }
 
     public static String joinTokens(List<Integer> toks) {
-        // join the tokens so CoreNLP can process
+        // join the tokens so the preprocessor can process
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < toks.size(); i++) {
             if (i != 0) {
@@ -51,70 +226,75 @@ public class CoreNlpWrapper {
         return sb.toString();
     }
 
-    public static List<Integer> pos(List<Integer> toks) {
-        if (posMem.containsKey(toks)) {
-            return posMem.get(toks);
-        } else {
-            parse(toks);  // parse() memoizes poss
-            assert posMem.containsKey(toks);
-            return posMem.get(toks);
+    /**
+     * Parses a sentence, or returns the cached parse.
+     * @param toks token ids
+     * @return
+     */
+    public static Parse parse(List<Integer> toks) {
+        Parse p = mem.get(toks);
+        if (p == null) {
+            p = store(toks, process(toks));
         }
+        return p;
     }
 
-    public static List<Integer> lemma(List<Integer> toks) {
-        if (lemMem.containsKey(toks)) {
-            return lemMem.get(toks);
-        } else {
-            parse(toks);  // parse() memoizes lemmas
-            assert lemMem.containsKey(toks);
-            return lemMem.get(toks);
+    /**
+     * Parses a sentence with an analysis given by analyze(), or returns the cached parse.
+     * @param toks token ids
+     * @param a analysis of the sentence, or null to run the preprocessor now
+     * @return
+     */
+    public static Parse parse(List<Integer> toks, Analysis a) {
+        Parse p = mem.get(toks);
+        if (p == null) {
+            p = store(toks, a != null ? a : process(toks));
         }
+        return p;
     }
 
-    public static Collection<TypedDependency> parse(List<Integer> toks) {
-        if (mem.containsKey(toks)) {
-            return mem.get(toks);
-        } else {
-            Annotation a = parser.process(joinTokens(toks));
-
-            CoreMap sen = a.get(CoreAnnotations.SentencesAnnotation.class).get(0);
-            List<Integer> poss = new ArrayList<>();
-            List<Integer> lems = new ArrayList<>();
-            for (CoreLabel tok: sen.get(TokensAnnotation.class)) {
-                String pos = tok.get(CoreAnnotations.PartOfSpeechAnnotation.class);
-                String lem = tok.get(CoreAnnotations.LemmaAnnotation.class);
-                String coarsePos = pos.substring(0, Math.min(pos.length(), 2));
-                int posId = Config.stringIdMap.getId(coarsePos);
-                int lemmaId = Config.stringIdMap.getId(lem);
-                poss.add(posId);
-                lems.add(lemmaId);
-            }
-            posMem.put(toks, poss);
-            lemMem.put(toks, lems);
-
-            Tree tree = sen.get(TreeCoreAnnotations.TreeAnnotation.class);
-            Collection<TypedDependency> deps = egsf.newGrammaticalStructure(tree).typedDependencies();
-
-            mem.put(toks, deps);
-            return deps;
+    /**
+     * Runs the preprocessor on a sentence. Doesn't touch stringIdMap, so ids don't depend on the order threads finish.
+     */
+    private static Analysis process(List<Integer> toks) {
+        List<String> tokStrs = new ArrayList<>(toks.size());
+        for (int tokId: toks) {
+            tokStrs.add(Config.stringIdMap.getString(tokId));
         }
+        return processTokens(tokStrs);
+    }
+
+    private static Analysis processTokens(List<String> tokStrs) {
+        long time0 = System.nanoTime();
+        Analysis a = preprocessor().analyze(tokStrs);
+        analysisTime.add(System.nanoTime() - time0);
+        return a;
     }
 
-    public static Pair<Map<Integer, Integer>, Map<Integer, Integer>> dep(List<Integer> tokIds) {
-        Collection<TypedDependency> deps = CoreNlpWrapper.parse(tokIds);
-        
-        Map<Integer, Integer> depIdxs = new HashMap<>();
-        Map<Integer, Integer> relIds = new HashMap<>();
-        // get dependency
-        for (TypedDependency dep: deps) {
-            int tail = dep.dep().index() - 1;
-            int head = dep.gov().index() - 1;
-            String rel = dep.reln().getShortName();
-            depIdxs.put(tail, head);
-            relIds.put(tail, Config.stringIdMap.getId(rel));
+    /**
+     * Maps POS tags, lemmas and relations to ids, and caches the result.
+     * Only the ids are kept, not the objects of the preprocessor.
+     */
+    private static Parse store(List<Integer> toks, Analysis a) {
+        long time0 = System.nanoTime();
+        int size = a.lemmas.length;
+        int[] lemmaIds = new int[size];
+        int[] posIds = new int[size];
+        int[] depRelIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            String pos = a.poss[i];
+            String coarsePos = pos.substring(0, Math.min(pos.length(), 2));
+            posIds[i] = Config.stringIdMap.getId(coarsePos);
+            lemmaIds[i] = Config.stringIdMap.getId(a.lemmas[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            depRelIds[i] = a.rels[i] == null ? -1 : Config.stringIdMap.getId(a.rels[i]);
         }
+        idTime.add(System.nanoTime() - time0);
 
-        return new ImmutablePair<>(depIdxs, relIds);
+        Parse p = new Parse(lemmaIds, posIds, a.heads.clone(), depRelIds);
+        mem.put(new ArrayList<>(toks), p);
+        return p;
     }
-    
+
 }
@@ -0,0 +1,75 @@
+package np2amr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import np2amr.feature.FeatureTemplate;
+
+/**
+ * Cache of atomic features for states of a single sentence.
+ * States are looked up by the values of the fields each template reads, so beam items that
+ * differ only in parts a template ignores share its features.
+ */
+public class FeatureCache {
+
+    private static final class Key {
+        final FeatureTemplate ft;
+        final int[] signature;
+        final int hash;
+
+        Key(FeatureTemplate ft, int[] signature) {
+            this.ft = ft;
+            this.signature = signature;
+            this.hash = 31 * System.identityHashCode(ft) + Arrays.hashCode(signature);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key k = (Key)obj;
+                return ft == k.ft && Arrays.equals(signature, k.signature);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final List<Token> toks;
+    private final Map<Key, int[]> mem;
+
+    public long hits;
+    public long misses;
+
+    public FeatureCache(List<Token> toks) {
+        this.toks = toks;
+        this.mem = new HashMap<>();
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Returns intermediate hash states of atomic features of the template for the state.
+     * @param ft
+     * @param state state of the sentence this cache was created for
+     * @return result of FeatureTemplate.partialHashes(), must not be modified
+     */
+    public int[] get(FeatureTemplate ft, State state) {
+        assert state.toks == toks;
+        Key key = new Key(ft, ft.signature(state));
+        int[] fs = mem.get(key);
+        if (fs == null) {
+            misses++;
+            fs = FeatureTemplate.partialHashes(ft.extractAtomicFeatures(state));
+            mem.put(key, fs);
+        } else {
+            hits++;
+        }
+        return fs;
+    }
+
+}
@@ -17,28 +17,59 @@ public class LinearScorer {
 
     public List<Float> score(State state, List<Action> actions) {
         int size = actions.size();
+        float[] buf = new float[size];
+        score(state, actions, buf);
 
-        List<Float> scores = new ArrayList<>();
+        List<Float> scores = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
-            scores.add(0f);
+            scores.add(buf[i]);
+        }
+        return scores;
+    }
+
+    /**
+     * Scores actions without allocating boxed scores.
+     * @param state
+     * @param actions
+     * @param scores buffer whose first actions.size() elements are overwritten with the scores of actions
+     */
+    public void score(State state, List<Action> actions, float[] scores) {
+        score(state, actions, scores, null);
+    }
+
+    /**
+     * Scores actions, looking up atomic features in cache.
+     * @param state
+     * @param actions
+     * @param scores buffer whose first actions.size() elements are overwritten with the scores of actions
+     * @param cache cache for the sentence of state, or null to extract features every time
+     */
+    public void score(State state, List<Action> actions, float[] scores, FeatureCache cache) {
+        int size = actions.size();
+        assert scores.length >= size;
+
+        for (int i = 0; i < size; i++) {
+            scores[i] = 0f;
         }
 
         for (FeatureTemplate ft: fts) {
-            List<List<Integer>> fs = ft.extractFeatures(state, actions);
+            // atomic features are hashed once, and combined with each action feature by primitive arithmetic
+            int[] partials = cache == null ? FeatureTemplate.partialHashes(ft.extractAtomicFeatures(state)) : cache.get(ft, state);
             for (int i = 0; i < size; i++) {
-                List<Integer> features = fs.get(i);
+                List<Integer> afs = actions.get(i).actionFeatures();
                 float tmp = 0f;
-                for (int f: features) {
-                    tmp += weights.get(f);
+                for (int j = 0; j < afs.size(); j++) {
+                    int af = afs.get(j);
+                    for (int p: partials) {
+                        tmp += weights.get(FeatureTemplate.combine(p, af));
+                    }
                 }
-                scores.set(i, scores.get(i) + tmp);
+                scores[i] += tmp;
 
-                //System.err.format("[%.2f]\t%s\t%s\n", scores.get(i), actions.get(i), features);
+                //System.err.format("[%.2f]\t%s\n", scores[i], actions.get(i));
             }
             //System.err.println();
         }
-
-        return scores;
     }
     
 }
@@ -0,0 +1,77 @@
+package np2amr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map that keeps at most capacity entries, evicting the least recently used one.
+ * Safe to use from multiple threads.
+ * @param <K>
+ * @param <V>
+ */
+public class LruCache<K, V> {
+
+    public final int capacity;
+
+    private final LinkedHashMap<K, V> map;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(int capacity) {
+        this.capacity = capacity;
+        // access order, so that the eldest entry is the least recently used
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return null if not cached
+     */
+    public synchronized V get(K key) {
+        V v = map.get(key);
+        if (v == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return v;
+    }
+
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * Returns hit rate and the number of evictions since the last call, and resets the counts.
+     * @return
+     */
+    public synchronized String flushStats() {
+        long total = hits + misses;
+        String res = String.format("%.1f%% [%d/%d], %d evicted, %d/%d entries",
+                total == 0 ? 0. : hits * 100. / total, hits, total, evictions, map.size(), capacity);
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        return res;
+    }
+
+}
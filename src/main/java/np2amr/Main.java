@@ -4,18 +4,32 @@ import np2amr.weights.ArrayWeights;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static np2amr.Config.WeightsType.ARRAY;
 import static np2amr.Config.WeightsType.MAP;
 import np2amr.amr.Concept;
+import np2amr.amr.CorpusCache;
 import np2amr.amr.Io;
+import np2amr.amr.ModelFile;
+import np2amr.preprocess.ConlluPreprocessor;
+import np2amr.preprocess.DepparsePreprocessor;
+import np2amr.preprocess.PcfgPreprocessor;
+import np2amr.preprocess.Preprocessor;
+import np2amr.weights.CompactWeights;
+import np2amr.weights.Quantization;
+import np2amr.weights.ReadOnlyWeights;
 import np2amr.weights.Weights;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -23,7 +37,6 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
 public class Main {
@@ -42,12 +55,26 @@ public class Main {
         opts.addOption(null, "featSize", true, "feature size");
         opts.addOption(null, "iter", true, "number of iterations");
         opts.addOption(null, "wn", true, "path to Wordnet dictionary directory");
+        opts.addOption(null, "threads", true, "number of threads for training or parsing test sentences");
+        opts.addOption(null, "batch", true, "number of samples decoded in parallel before updating weights (default: number of threads)");
+        opts.addOption(null, "cache", true, "binary cache of the preprocessed training data, created if it doesn't exist; training samples are streamed from it");
+        opts.addOption(null, "hogwild", false, "update shared weights from threads without synchronization (requires featSize)");
+        opts.addOption(null, "asyncSave", false, "save weights of each iteration on a background thread while the next iteration runs (uses memory for a copy of weights)");
 
         opts.addOption(null, "test", true, "test mode");
         opts.addOption(null, "interactive", false, "interactive test mode");
-        opts.addOption(null, "ws", true, "name of weights file");
+        opts.addOption(null, "ws", true, "name of weights file, or of a model file made by --pack");
+        opts.addOption(null, "pack", true, "write the model config and weights ws into a single model file with this name in the model directory");
+        opts.addOption(null, "prune", true, "drop weights whose absolute values are at most this when packing or loading weights (default: 0)");
+        opts.addOption(null, "quantize", true, "encoding of weights when packing or loading weights: float32, fp16 or int8 (default: float32)");
+        opts.addOption(null, "drift", false, "parse test sentences with weights as saved and as pruned and quantized, and report the differences");
+        opts.addOption(null, "server", true, "serve parsing over HTTP on the given localhost port, using threads workers");
+        opts.addOption(null, "queue", true, "number of server requests that may wait for a worker before new ones are refused (default: 4 * threads)");
 
         opts.addOption(null, "beam", true, "beam width");
+        opts.addOption(null, "preprocessor", true, "preprocessor giving lemmas, POS tags and dependencies: pcfg, depparse or conllu (default: pcfg for training, the one used in training for test)");
+        opts.addOption(null, "conllu", true, "CoNLL-U file of pre-annotated sentences for the conllu preprocessor");
+        opts.addOption(null, "parseCache", true, "number of sentences whose CoreNLP parses are cached (default: " + CoreNlpWrapper.DEFAULT_CACHE_SIZE + ")");
 
         CommandLineParser parser = new BasicParser();
         try {
@@ -55,9 +82,17 @@ public class Main {
 
             Path modelPath = Paths.get(cmd.getOptionValue("model"));
             int beamWidth = Integer.valueOf(cmd.getOptionValue("beam"));
+            if (cmd.hasOption("parseCache")) {
+                CoreNlpWrapper.setCacheSize(Integer.valueOf(cmd.getOptionValue("parseCache")));
+            }
+
+            String preprocessorName = cmd.getOptionValue("preprocessor");
+            Path conlluPath = cmd.hasOption("conllu") ? Paths.get(cmd.getOptionValue("conllu")) : null;
 
             if (cmd.hasOption("train")) {
                 // training mode
+                Config.preprocessorName = preprocessorName != null ? preprocessorName : PcfgPreprocessor.NAME;
+                CoreNlpWrapper.setPreprocessor(createPreprocessor(Config.preprocessorName, conlluPath));
                 Path trainPath = Paths.get(cmd.getOptionValue("train"));
                 Path dataPath = Paths.get(cmd.getOptionValue("data"));
                 String[] featureNames = cmd.getOptionValues("feature");
@@ -67,15 +102,33 @@ public class Main {
                     featSize = 1 << (Integer.valueOf(cmd.getOptionValue("featSize")));
                 }
                 String wnPath = cmd.getOptionValue("wn");
-                train(trainPath, modelPath, dataPath, wnPath, Arrays.asList(featureNames), iterNum, beamWidth, featSize);
+                int threads = Integer.valueOf(cmd.getOptionValue("threads", "1"));
+                int batchSize = Integer.valueOf(cmd.getOptionValue("batch", Integer.toString(threads)));
+                boolean hogwild = cmd.hasOption("hogwild");
+                boolean asyncSave = cmd.hasOption("asyncSave");
+                Path cachePath = cmd.hasOption("cache") ? Paths.get(cmd.getOptionValue("cache")) : null;
+                train(trainPath, cachePath, modelPath, dataPath, wnPath, Arrays.asList(featureNames), iterNum, beamWidth, featSize, threads, batchSize, hogwild, asyncSave);
             } else {
                 // test mode
                 String weightsName = cmd.getOptionValue("ws");
-                if (cmd.hasOption("interactive")) {
-                    test(null, modelPath, weightsName, beamWidth);
+                int threads = Integer.valueOf(cmd.getOptionValue("threads", "1"));
+                float threshold = Float.valueOf(cmd.getOptionValue("prune", "0"));
+                Quantization quantization = cmd.hasOption("quantize") ? Quantization.valueOf(cmd.getOptionValue("quantize").toUpperCase()) : null;
+                if (cmd.hasOption("pack")) {
+                    Weights<Integer> weights = loadWeights(modelPath, weightsName, preprocessorName, conlluPath);
+                    ModelFile.save(modelPath.resolve(cmd.getOptionValue("pack")), weights, threshold, quantization != null ? quantization : Quantization.FLOAT32);
+                } else if (cmd.hasOption("server")) {
+                    int port = Integer.valueOf(cmd.getOptionValue("server"));
+                    int maxQueued = Integer.valueOf(cmd.getOptionValue("queue", Integer.toString(4 * threads)));
+                    serve(port, modelPath, weightsName, beamWidth, threads, maxQueued, preprocessorName, conlluPath, threshold, quantization);
+                } else if (cmd.hasOption("interactive")) {
+                    test(null, modelPath, weightsName, beamWidth, 1, preprocessorName, conlluPath, threshold, quantization);
+                } else if (cmd.hasOption("drift")) {
+                    Path testPath = Paths.get(cmd.getOptionValue("test"));
+                    drift(testPath, modelPath, weightsName, beamWidth, preprocessorName, conlluPath, threshold, quantization);
                 } else if (cmd.hasOption("test")) {
                     Path testPath = Paths.get(cmd.getOptionValue("test"));
-                    test(testPath, modelPath, weightsName, beamWidth);
+                    test(testPath, modelPath, weightsName, beamWidth, threads, preprocessorName, conlluPath, threshold, quantization);
                 }
             }
 
@@ -85,27 +138,58 @@ public class Main {
         
     }
 
-    private static void train(Path trainPath, Path destPath, Path dataPath, String wnPath, List<String> featureStrs, int iterNum, int beamWidth, int featSize) throws IOException {
+    private static void train(Path trainPath, Path cachePath, Path destPath, Path dataPath, String wnPath, List<String> featureStrs, int iterNum, int beamWidth, int featSize, int threads, int batchSize, boolean hogwild, boolean asyncSave) throws IOException {
         // stringIdMap must has been initialized, because Io.loadAlignment registers new word IDs on its own.
-        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(trainPath);
-
-        List<List<Token>> amrs = t.getLeft();
-        Map<Integer, Set<Concept>> conceptTable = t.getMiddle();
-        Set<Integer> labelIds = t.getRight();
+        CoreNlpWrapper.setThreads(threads);
+        Iterable<List<Token>> amrs;
+        Map<Integer, Set<Concept>> conceptTable;
+        Set<Integer> labelIds;
+        if (cachePath == null) {
+            Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(trainPath);
+            amrs = t.getLeft();
+            conceptTable = t.getMiddle();
+            labelIds = t.getRight();
+        } else {
+            // stream samples from the cache, so that the corpus doesn't have to fit in memory
+            CorpusCache cache = CorpusCache.open(trainPath, cachePath);
+            amrs = cache;
+            conceptTable = cache.conceptTable;
+            labelIds = cache.labelIds;
+        }
 
         // set config
         Config.setConfig(dataPath, conceptTable, labelIds, wnPath, featureStrs, featSize == 0 ? MAP : ARRAY);
 
         // train by perceptron
         BeamDecoder decoder = new BeamDecoder(beamWidth);
-        Perceptron perceptron = new Perceptron(Config.fts, decoder, featSize);
+        Perceptron perceptron = new Perceptron(Config.fts, decoder, featSize, threads, batchSize, hogwild, asyncSave);
         perceptron.train(amrs, iterNum, destPath);
 
         Io.saveConfig(dataPath, destPath);
     }
 
-    private static String parse(List<String> tokStrs, BeamDecoder decoder, LinearScorer scorer) {
-        // create tokens
+    private static Preprocessor createPreprocessor(String name, Path conlluPath) throws IOException {
+        switch (name) {
+            case PcfgPreprocessor.NAME:
+                return new PcfgPreprocessor();
+            case DepparsePreprocessor.NAME:
+                return new DepparsePreprocessor();
+            case ConlluPreprocessor.NAME:
+                if (conlluPath == null) {
+                    throw new RuntimeException("conllu preprocessor requires a CoNLL-U file.");
+                }
+                return new ConlluPreprocessor(conlluPath);
+            default:
+                throw new RuntimeException("Unknown preprocessor: " + name);
+        }
+    }
+
+    /**
+     * Creates tokens of a sentence with the dummy root token.
+     * @param tokStrs
+     * @return null if the sentence is empty
+     */
+    private static List<Token> tokens(List<String> tokStrs) {
         List<Token> toks = new ArrayList<>();
         List<Integer> tokIds = new ArrayList<>();
         for (String tokStr: tokStrs) {
@@ -113,48 +197,137 @@ public class Main {
         }
 
         if (tokIds.isEmpty() || CoreNlpWrapper.joinTokens(tokIds).length() == 0) {
+            return null;
+        }
+        CoreNlpWrapper.Parse parse = CoreNlpWrapper.parse(tokIds);
+        toks.add(new Token());  // dummy rootConcept
+        for (int i = 0; i < tokIds.size(); i++) {
+            int surfId = tokIds.get(i);
+            int lemmaId = parse.lemmaIds[i];
+            int posId = parse.posIds[i];
+            int depHead = parse.depHeads[i];
+            int depRelId = parse.depRelIds[i];
+            Token tok = new Token(surfId, lemmaId, posId, depHead, depRelId);
+            toks.add(tok);
+        }
+        Token.prepare(toks);
+        return toks;
+    }
+
+    static String parse(List<String> tokStrs, BeamDecoder decoder, LinearScorer scorer) {
+        List<Token> toks = tokens(tokStrs);
+        if (toks == null) {
             return "(a / amr-empty)";
         } else {
-            List<Integer> lemmaIds = CoreNlpWrapper.lemma(tokIds);
-            List<Integer> posIds = CoreNlpWrapper.pos(tokIds);
-            Pair<Map<Integer, Integer>, Map<Integer, Integer>> p = CoreNlpWrapper.dep(tokIds);
-            Map<Integer, Integer> depIdxs = p.getLeft();
-            Map<Integer, Integer> relIds = p.getRight();
-            toks.add(new Token());  // dummy rootConcept
-            for (int i = 0; i < tokIds.size(); i++) {
-                int surfId = tokIds.get(i);
-                int lemmaId = lemmaIds.get(i);
-                int posId = posIds.get(i);
-                int depHead = depIdxs.containsKey(i) ? depIdxs.get(i) + 1 : -1;
-                int depRelId = relIds.containsKey(i) ? relIds.get(i) : -1;
-                Token tok = new Token(surfId, lemmaId, posId, depHead, depRelId);
-                toks.add(tok);
-            }
             State finalState = decoder.decode(new State(toks), scorer);
             return finalState.toAmr().toSexp();
         }
     }
 
     /**
-     * Parses input sentences into AMRs and prints them. If testPath is null, it parses user's input interactively.
-     * @param testPath test files
+     * Parses a sentence and returns the text printed for it: the tokens, the AMR and an empty line.
+     */
+    static String parseToOutput(List<String> tokStrs, BeamDecoder decoder, LinearScorer scorer) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# ::snt");
+        for (String tok: tokStrs) {
+            sb.append(" ");
+            sb.append(tok);
+        }
+        sb.append("\n");
+        sb.append(parse(tokStrs, decoder, scorer));
+        sb.append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * Loads config and weights of a model, sets up the preprocessor, and returns the weights.
      * @param modelPath
      * @param weightsName
-     * @param beamWidth
+     * @param preprocessorName null to use the preprocessor the model is trained with
+     * @param conlluPath CoNLL-U file for the conllu preprocessor
+     * @return
      * @throws IOException 
      */
-    private static void test(Path testPath, Path modelPath, String weightsName, int beamWidth) throws IOException {
+    private static Weights<Integer> loadWeights(Path modelPath, String weightsName, String preprocessorName, Path conlluPath) throws IOException {
         // each step depends on the previous step, don't scramble the order of execution
-        Io.loadConfig(modelPath);
-        Weights weights;
-        if (Config.weightsType == ARRAY) {
-            weights = Io.loadArrayWeights(modelPath.resolve(weightsName));
+        Path weightsPath = modelPath.resolve(weightsName);
+        Weights<Integer> weights = null;
+        if (ModelFile.isModelFile(weightsPath)) {
+            // config is in the model file, and weights are read from the mapped file
+            weights = ModelFile.load(weightsPath, modelPath);
         } else {
-            weights = Io.loadMapWeights(modelPath.resolve(weightsName));
+            Io.loadConfig(modelPath);
+        }
+        if (preprocessorName != null && !preprocessorName.equals(Config.preprocessorName)) {
+            Logger.getGlobal().log(Level.WARNING, "Model is trained with preprocessor " + Config.preprocessorName + ", but " + preprocessorName + " is used.");
+        }
+        CoreNlpWrapper.setPreprocessor(createPreprocessor(preprocessorName != null ? preprocessorName : Config.preprocessorName, conlluPath));
+        if (weights == null) {
+            if (Config.weightsType == ARRAY) {
+                weights = Io.loadArrayWeights(weightsPath);
+            } else {
+                weights = Io.loadMapWeights(weightsPath);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Returns pruned and quantized weights, or weights themselves if neither is requested.
+     * @param weights weights saved in training
+     * @param threshold weights whose absolute values are at most threshold are dropped
+     * @param quantization encoding of weights, or null to keep floats
+     * @return
+     */
+    private static Weights<Integer> compact(Weights<Integer> weights, float threshold, Quantization quantization) {
+        if (threshold == 0f && quantization == null) {
+            return weights;
+        }
+        if (weights instanceof ReadOnlyWeights) {
+            Logger.getGlobal().log(Level.WARNING, "Weights of a model file are used as they are packed.");
+            return weights;
         }
+        return CompactWeights.compact(weights, threshold, quantization != null ? quantization : Quantization.FLOAT32);
+    }
+
+    /**
+     * Loads a model once and parses sentences sent over HTTP until the process is killed.
+     * @param port
+     * @param modelPath
+     * @param weightsName
+     * @param beamWidth
+     * @param threads number of workers
+     * @param maxQueued number of requests that may wait for a worker
+     * @param preprocessorName null to use the preprocessor the model is trained with
+     * @param conlluPath CoNLL-U file for the conllu preprocessor
+     * @param threshold weights whose absolute values are at most threshold are dropped
+     * @param quantization encoding of weights, or null to keep floats
+     * @throws IOException 
+     */
+    private static void serve(int port, Path modelPath, String weightsName, int beamWidth, int threads, int maxQueued, String preprocessorName, Path conlluPath, float threshold, Quantization quantization) throws IOException {
+        LinearScorer scorer = new LinearScorer(Config.fts, compact(loadWeights(modelPath, weightsName, preprocessorName, conlluPath), threshold, quantization));
+        CoreNlpWrapper.setThreads(threads);
+        ParseServer server = new ParseServer(port, new BeamDecoder(beamWidth), scorer, threads, maxQueued);
+        server.start();
+    }
 
+    /**
+     * Parses input sentences into AMRs and prints them. If testPath is null, it parses user's input interactively.
+     * @param testPath test files
+     * @param modelPath
+     * @param weightsName
+     * @param beamWidth
+     * @param threads number of threads to parse test sentences with
+     * @param preprocessorName null to use the preprocessor the model is trained with
+     * @param conlluPath CoNLL-U file for the conllu preprocessor
+     * @param threshold weights whose absolute values are at most threshold are dropped
+     * @param quantization encoding of weights, or null to keep floats
+     * @throws IOException 
+     */
+    private static void test(Path testPath, Path modelPath, String weightsName, int beamWidth, int threads, String preprocessorName, Path conlluPath, float threshold, Quantization quantization) throws IOException {
+        LinearScorer scorer = new LinearScorer(Config.fts, compact(loadWeights(modelPath, weightsName, preprocessorName, conlluPath), threshold, quantization));
         BeamDecoder decoder = new BeamDecoder(beamWidth);
-        LinearScorer scorer = new LinearScorer(Config.fts, weights);
         if (testPath == null) {
             // interactive mode
             Scanner sc = new Scanner(System.in);
@@ -166,21 +339,88 @@ public class Main {
                 System.out.println(amrStr);
             }
         } else {
-            for (List<String> tokStrs: Io.loadTokens(testPath)) {
-                // print tokens
-                StringBuilder sb = new StringBuilder();
-                sb.append("# ::snt");
-                for (String tok: tokStrs) {
-                    sb.append(" ");
-                    sb.append(tok);
+            long startTime = System.nanoTime();
+            int count = 0;
+            if (threads == 1) {
+                for (List<String> tokStrs: Io.loadTokens(testPath)) {
+                    System.out.println(parseToOutput(tokStrs, decoder, scorer));
+                    count++;
                 }
-                System.out.println(sb.toString());
+            } else {
+                // parse in parallel, but print in the input order
+                // the number of pending sentences is bounded so that results don't pile up in memory
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                int maxPending = 4 * threads;
+                ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+                try {
+                    for (List<String> tokStrs: Io.loadTokens(testPath)) {
+                        if (pending.size() == maxPending) {
+                            System.out.println(pending.poll().get());
+                        }
+                        pending.add(pool.submit(() -> parseToOutput(tokStrs, decoder, scorer)));
+                        count++;
+                    }
+                    while (!pending.isEmpty()) {
+                        System.out.println(pending.poll().get());
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    throw new RuntimeException("Failed to parse a sentence.", ex);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            double sec = (System.nanoTime() - startTime) / 1e9;
+            Logger.getGlobal().log(Level.INFO, String.format("Parsed %d sentences in %.1f sec (%.1f sentences/sec)", count, sec, count / sec));
+            Logger.getGlobal().log(Level.INFO, "CoreNLP time: " + CoreNlpWrapper.flushTimings());
+            Logger.getGlobal().log(Level.INFO, "CoreNLP cache: " + CoreNlpWrapper.flushCacheStats());
+            Logger.getGlobal().log(Level.INFO, "Feature cache hit rate: " + decoder.flushCacheStats());
+        }
+    }
 
-                String amrStr = parse(tokStrs, decoder, scorer);
-                System.out.println(amrStr);
-                System.out.println();
+    /**
+     * Parses test sentences with weights as saved in training and with pruned and quantized weights, and prints how much they differ.
+     * @param testPath held-out sentences
+     * @param modelPath
+     * @param weightsName weights saved in training
+     * @param beamWidth
+     * @param preprocessorName null to use the preprocessor the model is trained with
+     * @param conlluPath CoNLL-U file for the conllu preprocessor
+     * @param threshold weights whose absolute values are at most threshold are dropped
+     * @param quantization encoding of weights, or null to keep floats
+     * @throws IOException 
+     */
+    private static void drift(Path testPath, Path modelPath, String weightsName, int beamWidth, String preprocessorName, Path conlluPath, float threshold, Quantization quantization) throws IOException {
+        Weights<Integer> weights = loadWeights(modelPath, weightsName, preprocessorName, conlluPath);
+        if (weights instanceof ReadOnlyWeights) {
+            throw new RuntimeException("Drift is measured from weights saved in training, not from a model file.");
+        }
+        Weights<Integer> compactedWeights = compact(weights, threshold, quantization);
+        LinearScorer scorer = new LinearScorer(Config.fts, weights);
+        LinearScorer compacted = new LinearScorer(Config.fts, compactedWeights);
+        BeamDecoder decoder = new BeamDecoder(beamWidth);
+
+        int count = 0;
+        int same = 0;
+        double scoreDiff = 0;
+        for (List<String> tokStrs: Io.loadTokens(testPath)) {
+            List<Token> toks = tokens(tokStrs);
+            if (toks == null) {
+                continue;
             }
+            State s1 = decoder.decode(new State(toks), scorer);
+            String amr1 = s1.toAmr().toSexp();
+            State s2 = decoder.decode(new State(tokens(tokStrs)), compacted);
+            String amr2 = s2.toAmr().toSexp();
+            count++;
+            if (amr1.equals(amr2)) {
+                same++;
+            }
+            scoreDiff += Math.abs(s1.score - s2.score);
         }
+
+        System.out.println("Weight error: " + CompactWeights.error(weights, compactedWeights));
+        System.out.println(String.format("Identical AMRs: %d/%d (%.2f%%)", same, count, count == 0 ? 0. : same * 100. / count));
+        System.out.println(String.format("Mean score difference of the best parses: %.4f", count == 0 ? 0. : scoreDiff / count));
     }
 
 }
@@ -0,0 +1,205 @@
+package np2amr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP server that parses sentences with a model loaded once.
+ *
+ * POST /parse takes one tokenized sentence per line (tokens separated by spaces), and returns the same text
+ * as test mode for each sentence. Sentences of a request are preprocessed together as a batch.
+ * GET /stats returns counts and latencies of requests.
+ *
+ * Requests are handled by a fixed number of workers. When all workers are busy and maxQueued requests are waiting,
+ * further requests are refused with 503 immediately, instead of piling up.
+ */
+public class ParseServer {
+
+    private static final int LATENCY_WINDOW = 1024;  // number of recent requests latency percentiles are computed from
+
+    private final BeamDecoder decoder;
+    private final LinearScorer scorer;
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong sentences = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_WINDOW];  // nanoseconds, ring buffer guarded by this
+    private long latencyCount = 0;
+
+    /**
+     * @param port port to listen to on localhost, 0 to choose a free port
+     * @param decoder
+     * @param scorer
+     * @param threads number of workers
+     * @param maxQueued number of requests that may wait for a worker
+     * @throws IOException
+     */
+    public ParseServer(int port, BeamDecoder decoder, LinearScorer scorer, int threads, int maxQueued) throws IOException {
+        this.decoder = decoder;
+        this.scorer = scorer;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued));
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        // handlers only hand requests to workers, so they run on the dispatcher thread of the server
+        server.createContext("/parse", this::admit);
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(null);
+    }
+
+    public void start() {
+        server.start();
+        Logger.getGlobal().log(Level.INFO, "Listening on " + server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void admit(HttpExchange ex) throws IOException {
+        long startTime = System.nanoTime();
+        if (!ex.getRequestMethod().equals("POST")) {
+            respond(ex, 405, "Use POST.\n");
+            return;
+        }
+        try {
+            workers.execute(() -> handleParse(ex, startTime));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            respond(ex, 503, "Server is busy.\n");
+        }
+    }
+
+    private void handleParse(HttpExchange ex, long startTime) {
+        try {
+            List<List<String>> tokss = new ArrayList<>();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        tokss.add(Arrays.asList(line.split(" +")));
+                    }
+                }
+            }
+
+            String res;
+            try {
+                res = parse(tokss);
+            } catch (Throwable e) {
+                // errors such as failed assertions too, so that the client isn't left waiting
+                Logger.getGlobal().log(Level.WARNING, "Failed to parse a request.", e);
+                errors.incrementAndGet();
+                respond(ex, 500, "Failed to parse: " + e + "\n");
+                return;
+            }
+            long latency = System.nanoTime() - startTime;
+            requests.incrementAndGet();
+            sentences.addAndGet(tokss.size());
+            recordLatency(latency);
+            ex.getResponseHeaders().add("X-Latency-Ms", String.format("%.3f", latency / 1e6));
+            respond(ex, 200, res);
+        } catch (Throwable e) {
+            Logger.getGlobal().log(Level.WARNING, "Failed to respond.", e);
+        } finally {
+            // the exchange is closed whatever happens, otherwise the client waits until its timeout
+            ex.close();
+        }
+    }
+
+    private String parse(List<List<String>> tokss) {
+        // preprocess all sentences of the request together, the parses are cached for Main.parseToOutput()
+        List<List<Integer>> batch = new ArrayList<>();
+        for (List<String> tokStrs: tokss) {
+            List<Integer> tokIds = new ArrayList<>();
+            for (String tokStr: tokStrs) {
+                tokIds.add(Util.i(tokStr));
+            }
+            if (CoreNlpWrapper.joinTokens(tokIds).length() > 0) {
+                batch.add(tokIds);
+            }
+        }
+        CoreNlpWrapper.annotate(batch);
+
+        StringBuilder sb = new StringBuilder();
+        for (List<String> tokStrs: tokss) {
+            sb.append(Main.parseToOutput(tokStrs, decoder, scorer));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private synchronized void recordLatency(long latency) {
+        latencies[(int)(latencyCount % LATENCY_WINDOW)] = latency;
+        latencyCount++;
+    }
+
+    /**
+     * Returns statistics of the server as lines of "name: value".
+     * Latencies are in milliseconds and computed from the last requests.
+     * @return
+     */
+    public String stats() {
+        long[] window;
+        synchronized (this) {
+            window = Arrays.copyOf(latencies, (int)Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("requests: %d\n", requests.get()));
+        sb.append(String.format("sentences: %d\n", sentences.get()));
+        sb.append(String.format("errors: %d\n", errors.get()));
+        sb.append(String.format("rejected: %d\n", rejected.get()));
+        sb.append(String.format("active: %d\n", workers.getActiveCount()));
+        sb.append(String.format("queued: %d\n", workers.getQueue().size()));
+        sb.append(String.format("latency_p50_ms: %.3f\n", percentile(window, 0.5) / 1e6));
+        sb.append(String.format("latency_p90_ms: %.3f\n", percentile(window, 0.9) / 1e6));
+        sb.append(String.format("latency_p99_ms: %.3f\n", percentile(window, 0.99) / 1e6));
+        sb.append(String.format("latency_max_ms: %.3f\n", percentile(window, 1.0) / 1e6));
+        return sb.toString();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private void handleStats(HttpExchange ex) throws IOException {
+        respond(ex, 200, stats());
+    }
+
+    private static void respond(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+}
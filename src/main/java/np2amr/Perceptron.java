@@ -1,6 +1,9 @@
 package np2amr;
 
-import np2amr.weights.ArrayWeights;
+import np2amr.weights.AtomicArrayWeights;
+import np2amr.weights.AveragedArrayWeights;
+import np2amr.weights.AveragedWeights;
+import np2amr.weights.AveragedWeightsPair;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -8,7 +11,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -16,32 +26,65 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import np2amr.action.Action;
 import np2amr.feature.FeatureTemplate;
-import np2amr.weights.MapWeights;
+import np2amr.weights.OpenHashWeights;
 import np2amr.weights.Weights;
 
 public class Perceptron {
 
     public final List<FeatureTemplate> fts;
-    public final Weights ws;
-    public final Weights wsAvg;
-    private int t;
+    public final AveragedWeights ws;
+    private final AtomicInteger t;    // shared by threads in Hogwild training
 
     public final LinearScorer scorer;
     public BeamDecoder decoder;
 
+    /**
+     * Number of threads that decode samples of a mini-batch in parallel.
+     */
+    public final int threads;
+    /**
+     * Number of samples decoded with the same weights before their updates are applied.
+     * With batchSize == 1 this is the ordinary online perceptron.
+     */
+    public final int batchSize;
+    /**
+     * If true, each thread decodes samples and updates the shared weights without waiting for others (Hogwild).
+     * Faster than mini-batches, but results depend on the timing of threads.
+     */
+    public final boolean hogwild;
+    /**
+     * If true, weights at the end of an iteration are copied and saved on a background thread while the next iteration runs.
+     */
+    public final boolean asyncSave;
+
     public Perceptron(List<FeatureTemplate> fts, BeamDecoder decoder, int featSize) {
+        this(fts, decoder, featSize, 1, 1, false);
+    }
+
+    public Perceptron(List<FeatureTemplate> fts, BeamDecoder decoder, int featSize, int threads, int batchSize, boolean hogwild) {
+        this(fts, decoder, featSize, threads, batchSize, hogwild, false);
+    }
+
+    public Perceptron(List<FeatureTemplate> fts, BeamDecoder decoder, int featSize, int threads, int batchSize, boolean hogwild, boolean asyncSave) {
         this.fts = fts;
+        this.asyncSave = asyncSave;
         this.decoder = decoder;
-        if (featSize == 0) {
-            // use MapWeights
-            this.ws = new MapWeights();
-            this.wsAvg = new MapWeights();
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.hogwild = hogwild;
+        if (hogwild) {
+            if (featSize == 0) {
+                throw new RuntimeException("Hogwild training requires feature size.");
+            }
+            this.ws = new AveragedWeightsPair(new AtomicArrayWeights(featSize), new AtomicArrayWeights(featSize));
+        } else if (featSize == 0) {
+            // use hash table
+            this.ws = new AveragedWeightsPair(new OpenHashWeights(), new OpenHashWeights());
         } else {
-            this.ws = new ArrayWeights(featSize);
-            this.wsAvg = new ArrayWeights(featSize);
+            this.ws = new AveragedArrayWeights(featSize);
         }
-        this.scorer = new LinearScorer(fts, this.ws);
-        this.t = 1;
+        this.scorer = new LinearScorer(fts, this.ws.current());
+        this.t = new AtomicInteger(1);
     }
 
     public void train(Iterable<List<Token>> amrs, int iterNum, Path dest) throws IOException {
@@ -64,21 +107,167 @@ public class Perceptron {
             Logger.getGlobal().log(Level.INFO, "Using feature: " + ft.getName());
         }
 
-        for (int iterCount = 0; iterCount < iterNum; iterCount++) {
-            Logger.getGlobal().log(Level.INFO, "Iter #" + (iterCount+1));
-            for (List<Token> amr: amrs) {
-                Logger.getGlobal().log(Level.INFO, "Processing: " + amr);
-                updateSample(amr);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        ExecutorService saver = asyncSave && dest != null ? Executors.newSingleThreadExecutor() : null;
+        Future<Void> saving = null;
+        try {
+            for (int iterCount = 0; iterCount < iterNum; iterCount++) {
+                Logger.getGlobal().log(Level.INFO, "Iter #" + (iterCount+1));
+                Iterator<List<Token>> it = amrs.iterator();
+                try {
+                    if (hogwild) {
+                        updateHogwild(it, pool);
+                    } else if (batchSize == 1) {
+                        while (it.hasNext()) {
+                            applyUpdate(collectUpdate(it.next()));
+                        }
+                    } else {
+                        List<List<Token>> batch = new ArrayList<>();
+                        while (it.hasNext()) {
+                            batch.add(it.next());
+                            if (batch.size() == batchSize) {
+                                updateBatch(batch, pool);
+                                batch.clear();
+                            }
+                        }
+                        updateBatch(batch, pool);
+                    }
+                } finally {
+                    // release the file of samples read lazily, even if an update failed
+                    close(it);
+                }
+
+                // end of iteration
+                Logger.getGlobal().log(Level.INFO, "Feature cache hit rate: " + decoder.flushCacheStats());
+                if (dest != null) {
+                    Path modelPath = dest.resolve("iter" + (iterCount+1));
+                    if (saver == null) {
+                        ws.save(modelPath, t.get());
+                    } else {
+                        // wait for the previous save, so that at most one copy of weights is kept
+                        waitForSave(saving);
+                        AveragedWeights snapshot = ws.snapshot();
+                        int tSnapshot = t.get();
+                        saving = saver.submit(() -> {
+                            snapshot.save(modelPath, tSnapshot);
+                            return null;
+                        });
+                    }
+                }
+            }
+            waitForSave(saving);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            if (saver != null) {
+                saver.shutdown();
+            }
+        }
+    }
+
+    private static void close(Iterator<?> it) {
+        if (it instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable)it).close();
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to close samples.", ex);
             }
+        }
+    }
 
-            // end of iteration
-            if (dest != null) {
-                Path modelPath = dest.resolve("iter" + (iterCount+1));
-                ws.save(modelPath, wsAvg, t);
+    private static void waitForSave(Future<Void> saving) throws IOException {
+        if (saving == null) {
+            return;
+        }
+        try {
+            saving.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
             }
+            throw new RuntimeException("Failed to save weights.", ex);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Failed to save weights.", ex);
         }
     }
 
+    /**
+     * Lets each thread take samples one by one, and update the shared weights as soon as a sample is decoded.
+     * @param it samples of this iteration
+     * @param pool executor with threads threads, or null to run on this thread
+     */
+    private void updateHogwild(Iterator<List<Token>> it, ExecutorService pool) {
+        Callable<Void> worker = () -> {
+            while (true) {
+                List<Token> amr;
+                synchronized (it) {
+                    if (!it.hasNext()) {
+                        return null;
+                    }
+                    amr = it.next();
+                }
+                applyUpdate(collectUpdate(amr));
+            }
+        };
+
+        try {
+            if (pool == null) {
+                worker.call();
+            } else {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(pool.submit(worker));
+                }
+                for (Future<Void> f: futures) {
+                    f.get();
+                }
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to decode a sample.", ex);
+        }
+    }
+
+    /**
+     * Decodes all samples in batch with the current weights, then applies their updates in the order of batch.
+     * Weights are not modified while decoding, so the result does not depend on the number of threads.
+     * @param batch
+     * @param pool executor to decode samples with, or null to decode on this thread
+     */
+    private void updateBatch(List<List<Token>> batch, ExecutorService pool) {
+        List<Update> updates = new ArrayList<>();
+        if (pool == null) {
+            for (List<Token> amr: batch) {
+                updates.add(collectUpdate(amr));
+            }
+        } else {
+            List<Future<Update>> futures = new ArrayList<>();
+            for (List<Token> amr: batch) {
+                futures.add(pool.submit(() -> collectUpdate(amr)));
+            }
+            try {
+                for (Future<Update> f: futures) {
+                    updates.add(f.get());
+                }
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new RuntimeException("Failed to decode a sample.", ex);
+            }
+        }
+
+        for (Update u: updates) {
+            applyUpdate(u);
+        }
+    }
+
+    /**
+     * Returns averaged weights at this point of training, e.g. to evaluate in the middle of an iteration.
+     * The returned weights are a view and not a copy, so they must not be used while training continues.
+     * @return 
+     */
+    public Weights<Integer> averagedWeights() {
+        return ws.averaged(t.get());
+    }
+
     public static List<State> stateSequence(State finalState) {
         List<State> res = new ArrayList<>();
         State state = finalState;
@@ -90,21 +279,39 @@ public class Perceptron {
         return res;
     }
 
-    private void updateSample(List<Token> goldAmr) throws IOException {
+    /**
+     * Features to reward and penalize for one sample, in the order they are applied.
+     */
+    private static final class Update {
+        final List<List<Integer>> goldFss = new ArrayList<>();
+        final List<List<Integer>> predFss = new ArrayList<>();
+    }
+
+    /**
+     * Decodes a sample and extracts features to update up to the max-violation point.
+     * Does not modify the weights.
+     * @param goldAmr
+     * @return null if the oracle can't produce the gold AMR
+     */
+    private Update collectUpdate(List<Token> goldAmr) {
+        Logger.getGlobal().log(Level.INFO, "Processing: " + goldAmr);
+        Token.prepare(goldAmr);     // shared by the oracle and the decoder
         State goldState = new State(goldAmr);
+        FeatureCache cache = new FeatureCache(goldAmr);
+        float[] scores = new float[1];
         while (!goldState.isFinal()) {
             Action a = goldState.goldAction();
             if (a == null) {
                 // unable to produce gold
                 Logger.getGlobal().log(Level.INFO, "Couldn't produce oracle.");
-                return;
+                return null;
             }
             List<Action> actions = Arrays.asList(a);
-            float actionScore = scorer.score(goldState, actions).get(0);
-            float newScore = goldState.score + actionScore;
+            scorer.score(goldState, actions, scores, cache);
+            float newScore = goldState.score + scores[0];
             goldState = goldState.next(a, newScore);
         }
-        State predState = decoder.decode(new State(goldAmr), scorer);
+        State predState = decoder.decode(new State(goldAmr), scorer, cache);
 
         // get sequences of states
         List<State> predStates = stateSequence(predState);
@@ -122,20 +329,22 @@ public class Perceptron {
         }
 
         // update until max-violation point
+        Update u = new Update();
         for (int k = maxk; k >= 0; k--) {
             State ps = predStates.get(k);
             State gs = goldStates.get(k);
-            update(gs, ps);
+            collectFeatures(u, gs, ps);
         }
-        t++;
+        return u;
     }
 
     /**
-     * Update with previous actions of gold and pred.
+     * Collects features of previous actions of gold and pred.
+     * @param u
      * @param gold
      * @param pred 
      */
-    private void update(State gold, State pred) {
+    private void collectFeatures(Update u, State gold, State pred) {
         State goldPrev = gold.prev;
         Action goldPrevAct = gold.prevAct;
         State predPrev = pred.prev;
@@ -148,21 +357,36 @@ public class Perceptron {
             //System.err.printf("pred: %s [%s] %s\n", predPrevAct, predPrev.score, predFs);
             //System.err.printf("gold: %s [%s] %s\n\n", goldPrevAct, goldPrev.score, goldFs);
 
+            u.goldFss.add(goldFs);
+            u.predFss.add(predFs);
+        }
+
+        //System.err.printf("pred: %s [%s]\n", predPrevAct, predPrev.score);
+        //System.err.printf("gold: %s [%s]\n\n", goldPrevAct, goldPrev.score);
+    }
+
+    /**
+     * Updates weights with features collected for one sample.
+     * Safe to call from multiple threads if weights are AtomicArrayWeights.
+     * @param u null if the sample was skipped
+     */
+    private void applyUpdate(Update u) {
+        if (u == null) {
+            return;
+        }
+        int t = this.t.get();
+        for (int i = 0; i < u.goldFss.size(); i++) {
             // add 1 to weights of gold features
-            for (int f: goldFs) {
-                ws.add(f, 1);       // add 1
-                wsAvg.add(f, t);    // add t
+            for (int f: u.goldFss.get(i)) {
+                ws.update(f, 1, t);
             }
 
             // subtract 1 from weights of pred features
-            for (int f: predFs) {
-                ws.add(f, -1);       // subtract 1
-                wsAvg.add(f, -t);    // subtract t
+            for (int f: u.predFss.get(i)) {
+                ws.update(f, -1, t);
             }
         }
-
-        //System.err.printf("pred: %s [%s]\n", predPrevAct, predPrev.score);
-        //System.err.printf("gold: %s [%s]\n\n", goldPrevAct, goldPrev.score);
+        this.t.incrementAndGet();
     }
     
 }
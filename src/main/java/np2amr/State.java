@@ -1,23 +1,22 @@
 package np2amr;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collections;
 import np2amr.action.Action;
 import java.util.List;
-import java.util.Map;
+import np2amr.action.ActionTable;
 import np2amr.action.DummyAction;
 import np2amr.action.EmptyAction;
 import np2amr.action.ReduceAction;
 import np2amr.action.ShiftAction;
 import np2amr.amr.Concept;
-import np2amr.amr.OntoPredicate;
-import org.apache.commons.lang3.tuple.Pair;
+import np2amr.amr.Fragment;
 
 public class State {
 
     public final int top;
-    public final Concept concept;
+    public final Fragment concept;
     public final int lmost;
     public final int rmost;
     public final State left;
@@ -41,7 +40,7 @@ public class State {
         this.score = 0;
     }
 
-    public State(int top, Concept concept, int lmost, int rmost, State left, int right, List<Token> toks, State prev, Action prevAct, float score) {
+    public State(int top, Fragment concept, int lmost, int rmost, State left, int right, List<Token> toks, State prev, Action prevAct, float score) {
         this.top = top;
         this.concept = concept;
         this.lmost = lmost;
@@ -79,14 +78,12 @@ public class State {
     private ShiftAction goldShiftAction() {
         Token tok = toks.get(right);
 
-        Concept goldConcept = tok.goldConcept;
-        assert goldConcept != null;
+        assert tok.goldConcept != null;
+        Fragment goldConcept = Fragment.of(tok.goldConcept);
 
-        for (Pair<ShiftAction.Type, Concept> p: Util.identifyConcepts(tok)) {
-            ShiftAction.Type type = p.getLeft();
-            Concept c = p.getRight();
-            if (c.equals(goldConcept)) {
-                return new ShiftAction(type, c);
+        for (ShiftAction a: tok.shiftActions()) {
+            if (a.concept == goldConcept) {
+                return a;
             }
         }
 
@@ -99,12 +96,12 @@ public class State {
      */
     public Action goldAction() {
         if (prevAct instanceof EmptyAction) {
-            return new DummyAction();   // only DUMMY is allowed after EMPTY
+            return DummyAction.INSTANCE;   // only DUMMY is allowed after EMPTY
         }
 
         if (right < toks.size() && toks.get(right).goldConcept == null) {
             // EMPTY as soon as possible
-            return new EmptyAction();
+            return EmptyAction.INSTANCE;
         } else if (left == null) {
             // SHIFT
             return goldShiftAction();
@@ -113,7 +110,7 @@ public class State {
             Token s1 = toks.get(left.top);
 
             if (s1.goldHead == top) {
-                return new ReduceAction(ReduceAction.Dir.LEFT, s1.goldLabelId, s1.goldPosition);
+                return ActionTable.get().reduce(ReduceAction.Dir.LEFT, s1.goldLabelId, s1.goldPosition);
             } else if (s0.goldHead == left.top) {
                 boolean reducible = true;
                 for (int i = right; i < toks.size(); i++) {
@@ -123,7 +120,7 @@ public class State {
                     }
                 }
                 if (reducible) {
-                    return new ReduceAction(ReduceAction.Dir.RIGHT, s0.goldLabelId, s0.goldPosition);
+                    return ActionTable.get().reduce(ReduceAction.Dir.RIGHT, s0.goldLabelId, s0.goldPosition);
                 }
             }
         }
@@ -140,7 +137,7 @@ public class State {
      */
     public List<Action> validActions() {
         if (prevAct instanceof EmptyAction) {
-            return Arrays.asList(new DummyAction());
+            return Collections.singletonList(DummyAction.INSTANCE);
         }
 
         List<Action> res = new ArrayList<>();
@@ -153,38 +150,47 @@ public class State {
                 // EMPTY is applicable except for immediately after REDUCE
                 res.add(new EmptyAction());
             }*/
-            res.add(new EmptyAction());
+            res.add(EmptyAction.INSTANCE);
 
             // token to identify concept
-            Token tok = toks.get(right);
-
-            Util.identifyConcepts(tok).stream().forEach((p) -> {
-                ShiftAction.Type type = p.getLeft();
-                Concept newConcept = p.getRight();
-                res.add(new ShiftAction(type, newConcept));
-            });
+            Collections.addAll(res, toks.get(right).shiftActions());
         }
 
         // check reduce
         if (left != null) {
-            int size = concept.size();
-            int leftSize = left.concept == null ? 1 : left.concept.size();
-            for (int labelId: Config.labelIds) {
+            ActionTable table = ActionTable.get();
+            // labels allowed by the concept at each position as the predicate
+            BitSet[] allowed = allowedLabels(table, concept);
+            BitSet[] leftAllowed = left.concept == null ? null : allowedLabels(table, left.concept);
+            int size = allowed.length;
+            int leftSize = left.concept == null ? 1 : leftAllowed.length;
+            for (int l = 0; l < table.labels.length; l++) {
+                boolean reversed = table.isReversed(l);
                 // left-reduce
                 if (left.top != 0) {    // if left is not ROOT
+                    ReduceAction[] as = table.reduces(ReduceAction.Dir.LEFT, l, size);
+                    // predicate is the root of left if the label is reversed, otherwise the head
+                    boolean tailOk = reversed && leftAllowed[0].get(l);
                     for (int i = 0; i < size; i++) {
-                        ReduceAction a = new ReduceAction(ReduceAction.Dir.LEFT, labelId, i);
-                        if (checkLabelConstraints(a)) {
-                            res.add(a);
+                        if (reversed ? tailOk : allowed[i].get(l)) {
+                            res.add(as[i]);
                         }
                     }
                 }
                 // right-reduce
                 if (left.top != 0 || right == toks.size()) {    // if left is ROOT, buffer must be empty
-                    for (int i = 0; i < leftSize; i++) {
-                        ReduceAction a = new ReduceAction(ReduceAction.Dir.RIGHT, labelId, i);
-                        if (checkLabelConstraints(a)) {
-                            res.add(a);
+                    ReduceAction[] as = table.reduces(ReduceAction.Dir.RIGHT, l, leftSize);
+                    if (left.concept == null) {
+                        // reduce to ROOT
+                        if (table.rootLabels().get(l)) {
+                            res.add(as[0]);
+                        }
+                    } else {
+                        boolean tailOk = reversed && allowed[0].get(l);
+                        for (int i = 0; i < leftSize; i++) {
+                            if (reversed ? tailOk : leftAllowed[i].get(l)) {
+                                res.add(as[i]);
+                            }
                         }
                     }
                 }
@@ -197,76 +203,17 @@ public class State {
     }
 
     /**
-     * Checks whether ReduceAction satisfies hard-constraints of allowed relations.
-     * @param a 
-     * @return  
-     */
-    public boolean checkLabelConstraints(ReduceAction a) {
-        if (left.concept == null) {
-            // reduce to ROOT
-            return a.dir == ReduceAction.Dir.RIGHT && a.position == 0 && a.labelId == Util.i("root");
-        } else {
-            Concept cTail;
-            Concept cHead;
-            if (a.dir == ReduceAction.Dir.RIGHT) {
-                cTail = concept;
-                cHead = left.concept.getConceptAtPosition(a.position);
-            } else {
-                cTail = left.concept;
-                cHead = concept.getConceptAtPosition(a.position);
-            }
-
-            // resolve reversed label
-            int labelId = a.labelId;
-            int predId = cHead.conceptId;
-            if (Util.isReversedLabel(a.labelId)) {
-                labelId = Util.flipLabel(a.labelId);
-                predId = cTail.conceptId;
-            }
-
-            if (Util.isPred(predId)) {
-                return allowedLabel(predId, labelId);
-            } else {
-                // it's not a prediacte
-                // not allowed to take ARGn
-                return !Util.isArgLabel(labelId);
-            }
-        }
-    }
-
-    private static Map<OntoPredicate, List<Integer>> predArgMem = new HashMap<>();
-    /**
-     * Returns whether labelId is allowed to be attached to pred.
-     * @param pred
-     * @param labelId
+     * Returns labels allowed by the concept at each position of fragment as the predicate.
+     * @param table
+     * @param fragment
      * @return 
      */
-    private static boolean allowedLabel(int predId, int labelId) {
-        if (!Config.preds.containsKey(predId)) {
-            // unknown predicate
-            return true;
-        } else {
-            // known predicate
-            OntoPredicate pred = Config.preds.get(predId);
-            if (Util.isArgLabel(labelId)) {
-                // label is ARGn
-                List<Integer> allowedLabels;
-                if (predArgMem.containsKey(pred)) {
-                    allowedLabels = predArgMem.get(pred);
-                } else {
-                    allowedLabels = new ArrayList<>();
-                    predArgMem.put(pred, allowedLabels);
-                    for (int i: pred.args) {
-                        String argName = "ARG" + Integer.toString(i);
-                        allowedLabels.add(Util.i(argName));
-                    }
-                }
-                return allowedLabels.contains(labelId);
-            } else {
-                // other labels: always ok
-                return true;
-            }
+    private static BitSet[] allowedLabels(ActionTable table, Fragment fragment) {
+        BitSet[] res = new BitSet[fragment.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = table.allowedLabels(fragment.conceptIdAt(i));
         }
+        return res;
     }
 
     public boolean isFinal() {
@@ -276,6 +223,7 @@ public class State {
 
     /**
      * Transform the state to a concept where all fragments are connected according to the actions.
+     * Fragments of states are converted to Concept here.
      * If there's no concept in the resulting AMR, returns (amr-empty).
      * @return 
      */
@@ -283,14 +231,15 @@ public class State {
         assert isFinal();
 
         int size = toks.size();
+        Concept[] concepts = new Concept[size];   // concept of the fragment of each token
 
         State s = prev;  // before attachment of root
-        Concept root = s.concept;
+        Concept root = concept(concepts, s);
         while (s != null) {
             if (s.prevAct instanceof ReduceAction) {
                 ReduceAction a = (ReduceAction)s.prevAct;
-                Concept s0 = s.prev.concept;
-                Concept s1 = s.prev.left.concept;
+                Concept s0 = concept(concepts, s.prev);
+                Concept s1 = concept(concepts, s.prev.left);
                 Concept cTail, cHead;
                 if (a.dir == ReduceAction.Dir.LEFT) {
                     cTail = s1;
@@ -310,4 +259,20 @@ public class State {
         }
     }
 
+    /**
+     * Returns the concept of the fragment on the top of s, making it when first needed.
+     * @param concepts concepts indexed by tokens
+     * @param s
+     * @return null if s has no fragment on the top
+     */
+    private static Concept concept(Concept[] concepts, State s) {
+        if (s.concept == null) {
+            return null;
+        }
+        if (concepts[s.top] == null) {
+            concepts[s.top] = s.concept.toConcept();
+        }
+        return concepts[s.top];
+    }
+
 }
@@ -1,27 +1,36 @@
 package np2amr;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Mapping between strings and ids. Safe to use from multiple threads.
+ */
 public final class StringIdMap {
 
     public final Map<String, Integer> str2id;
-    public final List<String> id2str;
+    public final List<String> id2str;   // guarded by this
     public int entityCount;
 
+    // copy of id2str for lock-free reads, replaced by a larger copy when full
+    private volatile String[] strs;
+
     public StringIdMap(Map<String, Integer> str2id, List<String> id2str) {
         assert str2id.size() == id2str.size();
-        this.str2id = str2id;
+        this.str2id = new ConcurrentHashMap<>(str2id);
         this.id2str = id2str;
         this.entityCount = str2id.size();
+        this.strs = id2str.toArray(new String[Math.max(16, id2str.size())]);
     }
 
     public StringIdMap() {
-        str2id = new HashMap<>();
+        str2id = new ConcurrentHashMap<>();
         id2str = new ArrayList<>();
         this.entityCount = 0;
+        this.strs = new String[16];
     }
 
     /**
@@ -30,20 +39,37 @@ public final class StringIdMap {
      */
     private void add(String str) {
         assert !str2id.containsKey(str);
-        str2id.put(str, entityCount);
         id2str.add(str);
+        String[] a = strs;
+        if (entityCount == a.length) {
+            a = Arrays.copyOf(a, a.length * 2);
+        }
+        a[entityCount] = str;
+        strs = a;   // volatile write publishes the new entry
+        str2id.put(str, entityCount);   // publish after id2str is updated
         entityCount++;
         assert id2str.size() == entityCount;
     }
 
     public String getString(int id) {
-        return id2str.get(id);
+        String[] a = strs;
+        String str = id >= 0 && id < a.length ? a[id] : null;
+        if (str == null) {
+            throw new IndexOutOfBoundsException("Unknown id: " + id);
+        }
+        return str;
     }
 
     public int getId(String str) {
-        if (!str2id.containsKey(str)) {
-            add(str);
+        Integer id = str2id.get(str);
+        if (id == null) {
+            synchronized (this) {
+                if (!str2id.containsKey(str)) {
+                    add(str);
+                }
+                id = str2id.get(str);
+            }
         }
-        return str2id.get(str);
+        return id;
     }
 }
@@ -1,6 +1,10 @@
 package np2amr;
 
+import java.util.List;
+import np2amr.action.ShiftAction;
 import np2amr.amr.Concept;
+import np2amr.amr.Fragment;
+import org.apache.commons.lang3.tuple.Pair;
 
 public class Token {
 
@@ -22,6 +26,9 @@ public class Token {
     public final int goldLabelId;
     public final int goldPosition;
 
+    // SHIFT actions of the concepts this token invokes, computed once for the sentence
+    private volatile ShiftAction[] shiftActions = null;
+
     // dummy-root
     public Token() {
         int rootId = Config.stringIdMap.getId(ROOT);
@@ -73,6 +80,34 @@ public class Token {
         this.isAdj = Config.stringIdMap.getString(posId).startsWith("JJ");
     }
 
+    /**
+     * Returns SHIFT actions of the concepts this token invokes, computing them when first needed.
+     * @return 
+     */
+    public ShiftAction[] shiftActions() {
+        ShiftAction[] res = shiftActions;
+        if (res == null) {
+            List<Pair<ShiftAction.Type, Fragment>> ps = Util.identifyConcepts(this);
+            res = new ShiftAction[ps.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = new ShiftAction(ps.get(i).getLeft(), ps.get(i).getRight());
+            }
+            shiftActions = res;
+        }
+        return res;
+    }
+
+    /**
+     * Computes SHIFT actions of all tokens of a sentence, so that expanding states doesn't compute them.
+     * Must be called after the mappings in Config are set.
+     * @param toks tokens including the dummy root
+     */
+    public static void prepare(List<Token> toks) {
+        for (int i = 1; i < toks.size(); i++) {
+            toks.get(i).shiftActions();
+        }
+    }
+
     @Override
     public String toString() {
         return Util.s(lemmaId);
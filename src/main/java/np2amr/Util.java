@@ -1,14 +1,13 @@
 package np2amr;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import np2amr.action.ShiftAction;
-import np2amr.amr.Concept;
+import np2amr.amr.Fragment;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -25,19 +24,71 @@ public final class Util {
     public static int hash(List<Integer> arr) {
         int res = 0;
         for (int n: arr) {
-            res += n;
-            res += (res << 10);
-            res ^= (res >> 6);
+            res = hashStep(res, n);
         }
-        res += (res << 3);
-        res ^= (res >> 11);
-        res += (res << 15);
-        
-        return res;
+        return hashFinish(res);
+    }
+
+    /**
+     * Adds n to an intermediate state of Jenkins one-at-a-time hash.
+     * hash(n1, ..., nk) == hashFinish(hashStep(...hashStep(0, n1)..., nk))
+     * @param h intermediate state (0 for empty input)
+     * @param n
+     * @return next intermediate state
+     */
+    public static int hashStep(int h, int n) {
+        h += n;
+        h += (h << 10);
+        h ^= (h >> 6);
+        return h;
+    }
+
+    /**
+     * Finalizes an intermediate state of Jenkins one-at-a-time hash.
+     * @param h intermediate state
+     * @return hash value
+     */
+    public static int hashFinish(int h) {
+        h += (h << 3);
+        h ^= (h >> 11);
+        h += (h << 15);
+        return h;
+    }
+
+    /**
+     * Same as hash(List), for the first len elements of arr.
+     * @param arr
+     * @param len
+     * @return 
+     */
+    public static int hash(int[] arr, int len) {
+        int res = 0;
+        for (int i = 0; i < len; i++) {
+            res = hashStep(res, arr[i]);
+        }
+        return hashFinish(res);
+    }
+
+    public static int hash(int... ns) {
+        return hash(ns, ns.length);
+    }
+
+    // fixed-arity versions to avoid allocating varargs arrays
+
+    public static int hash(int n1) {
+        return hashFinish(hashStep(0, n1));
+    }
+
+    public static int hash(int n1, int n2) {
+        return hashFinish(hashStep(hashStep(0, n1), n2));
+    }
+
+    public static int hash(int n1, int n2, int n3) {
+        return hashFinish(hashStep(hashStep(hashStep(0, n1), n2), n3));
     }
 
-    public static int hash(Integer... ns) {
-        return hash(Arrays.asList(ns));
+    public static int hash(int n1, int n2, int n3, int n4) {
+        return hashFinish(hashStep(hashStep(hashStep(hashStep(0, n1), n2), n3), n4));
     }
 
     public static String s(int id) {
@@ -53,8 +104,8 @@ public final class Util {
      * @param tok token from which to identy concepts
      * @return list of pairs of rules and concept fragments
      */
-    public static List<Pair<ShiftAction.Type, Concept>> identifyConcepts(Token tok) {
-        List<Pair<ShiftAction.Type, Concept>> res = new ArrayList<>();
+    public static List<Pair<ShiftAction.Type, Fragment>> identifyConcepts(Token tok) {
+        List<Pair<ShiftAction.Type, Fragment>> res = new ArrayList<>();
         int id = tok.lemmaId;
 
         Set<Integer> identifiedConceptIds = new HashSet<>();
@@ -62,7 +113,7 @@ public final class Util {
         if (tok.isNoun) {
             if (Config.noun2pred.containsKey(id)) {
                 Config.noun2pred.get(id).stream().forEach((pred) -> {
-                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_PRED, new Concept(pred.predId)));
+                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_PRED, Fragment.of(pred.predId)));
                     identifiedConceptIds.add(pred.predId);
                 });
             }
@@ -70,7 +121,7 @@ public final class Util {
             // adjective-to-predicate
             if (Config.adj2pred.containsKey(id)) {
                 Config.adj2pred.get(id).stream().forEach((pred) -> {
-                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_PRED, new Concept(pred.predId)));
+                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_PRED, Fragment.of(pred.predId)));
                     identifiedConceptIds.add(pred.predId);
                 });
             }
@@ -79,21 +130,21 @@ public final class Util {
                     if (id == nounId) {
                         leaveAsIs = false;
                     }
-                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_NOUN, new Concept(nounId)));
+                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_NOUN, Fragment.of(nounId)));
                     identifiedConceptIds.add(nounId);
                 }
             }
         } else if (tok.isVerb) {
             if (Config.verb2pred.containsKey(id)) {
                 Config.verb2pred.get(id).stream().forEach((pred) -> {
-                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_PRED, new Concept(pred.predId)));
+                    res.add(new ImmutablePair<>(ShiftAction.Type.TO_PRED, Fragment.of(pred.predId)));
                     identifiedConceptIds.add(pred.predId);
                 });
             }
         }
 
         if (leaveAsIs) {
-            res.add(new ImmutablePair<>(ShiftAction.Type.LEAVE_AS_IS, new Concept(id)));
+            res.add(new ImmutablePair<>(ShiftAction.Type.LEAVE_AS_IS, Fragment.of(id)));
             identifiedConceptIds.add(id);
         }
 
@@ -101,15 +152,15 @@ public final class Util {
         if (Config.conceptTable.containsKey(id)) {
             Config.conceptTable.get(id).stream().forEach((c) -> {
                 // make sure not to add the same concept twice as different actions
-                if (c.size() >= 2 || !identifiedConceptIds.contains(c.conceptId)) {
-                    res.add(new ImmutablePair<>(ShiftAction.Type.KNOWN_MAP, new Concept(c)));
+                if (!c.children.isEmpty() || !identifiedConceptIds.contains(c.conceptId)) {
+                    res.add(new ImmutablePair<>(ShiftAction.Type.KNOWN_MAP, Fragment.of(c)));
                 }
             });
         }
 
         /*
         System.err.println(tok);
-        for (Pair<ShiftAction.Type, Concept> p: res) {
+        for (Pair<ShiftAction.Type, Fragment> p: res) {
             System.err.format("%s: %s\n", p.getLeft(), p.getRight());
         }
         System.err.println();
@@ -118,7 +169,7 @@ public final class Util {
         return res;
     }
 
-    private static final Map<Integer, Boolean> isPredMem = new HashMap<>();
+    private static final Map<Integer, Boolean> isPredMem = new ConcurrentHashMap<>();
     /**
      * Returns whether given id refferes to Ontonotes predicate or not.
      * Determined by whether suffix is "-xx".
@@ -135,7 +186,7 @@ public final class Util {
         return res;
     }
 
-    private static final Map<Integer, Boolean> isArgLabelMem = new HashMap<>();
+    private static final Map<Integer, Boolean> isArgLabelMem = new ConcurrentHashMap<>();
     /**
      * Returns whether this label is ARGn.
      * @param labelId
@@ -151,7 +202,7 @@ public final class Util {
         }
     }
 
-    public static Map<Integer, Boolean> reversedLabelMem = new HashMap<>();
+    public static Map<Integer, Boolean> reversedLabelMem = new ConcurrentHashMap<>();
     /**
      * Checks whether it's a reversed label, such as "ARG0-of".
      * @param labelId
@@ -168,7 +219,7 @@ public final class Util {
         return res;
     }
 
-    public static Map<Integer, Integer> normalizedLabelMem = new HashMap<>();
+    public static Map<Integer, Integer> normalizedLabelMem = new ConcurrentHashMap<>();
     /**
      * Reverses normalized (without -of) version of label.
      * If normalized version of the label is unknown, returns -1.
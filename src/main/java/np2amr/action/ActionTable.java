@@ -0,0 +1,206 @@
+package np2amr.action;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import np2amr.Config;
+import np2amr.Util;
+import np2amr.amr.OntoPredicate;
+
+/**
+ * Interned REDUCE actions of a model, indexed by direction, label and position.
+ * Actions are immutable and shared by all states, so their features are hashed only once.
+ *
+ * Also holds the label constraints compiled into bit sets over label indices,
+ * so that REDUCE actions violating them are skipped without being looked at.
+ */
+public final class ActionTable {
+
+    private static final int INITIAL_POSITIONS = 8;
+
+    private static volatile ActionTable current = null;
+
+    /**
+     * Labels the table is built for.
+     */
+    public final Set<Integer> labelIds;
+    /**
+     * Label ids in the iteration order of labelIds.
+     */
+    public final int[] labels;
+    private final Map<Integer, Integer> labelIndex = new HashMap<>();
+    /**
+     * Predicates the constraints are compiled for.
+     */
+    public final Map<Integer, OntoPredicate> preds;
+
+    // labels such as "ARG0-of", whose predicate is the tail
+    private final BitSet reversed = new BitSet();
+    // labels that are ARGn after flipped
+    private final BitSet args = new BitSet();
+    // labels other than ARGn
+    private final BitSet nonArgs = new BitSet();
+    private final BitSet all = new BitSet();
+    private final BitSet root = new BitSet();
+    // ARGn labels flipped, as label ids
+    private final int[] flipped;
+    // allowed labels of each concept id as a predicate
+    private final Map<Integer, BitSet> allowedMem = new ConcurrentHashMap<>();
+
+    // [direction][label index][position], every row has the same length
+    private volatile ReduceAction[][][] reduces;
+
+    private ActionTable(Set<Integer> labelIds, Map<Integer, OntoPredicate> preds) {
+        this.labelIds = labelIds;
+        this.preds = preds;
+        this.labels = new int[labelIds == null ? 0 : labelIds.size()];
+        int i = 0;
+        for (int labelId: labelIds == null ? Collections.<Integer>emptySet() : labelIds) {
+            labels[i] = labelId;
+            labelIndex.put(labelId, i);
+            i++;
+        }
+
+        this.flipped = new int[labels.length];
+        int rootId = Util.i(Config.ROOT_LABEL);
+        for (i = 0; i < labels.length; i++) {
+            flipped[i] = labels[i];
+            if (Util.isReversedLabel(labels[i])) {
+                reversed.set(i);
+                flipped[i] = Util.flipLabel(labels[i]);
+            }
+            (Util.isArgLabel(flipped[i]) ? args : nonArgs).set(i);
+            all.set(i);
+            if (labels[i] == rootId) {
+                root.set(i);
+            }
+        }
+        this.reduces = new ReduceAction[ReduceAction.Dir.values().length][labels.length][0];
+        grow(INITIAL_POSITIONS);
+    }
+
+    /**
+     * Returns the table for Config.labelIds and Config.preds, building it when either is replaced.
+     * @return
+     */
+    public static ActionTable get() {
+        ActionTable t = current;
+        if (t == null || t.labelIds != Config.labelIds || t.preds != Config.preds) {
+            synchronized (ActionTable.class) {
+                t = current;
+                if (t == null || t.labelIds != Config.labelIds || t.preds != Config.preds) {
+                    t = new ActionTable(Config.labelIds, Config.preds);
+                    current = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Returns REDUCE actions of positions 0, 1, ... with the i-th label.
+     * @param dir
+     * @param i index in labels
+     * @param size number of positions needed
+     * @return array whose length is at least size
+     */
+    public ReduceAction[] reduces(ReduceAction.Dir dir, int i, int size) {
+        ReduceAction[][][] t = reduces;
+        if (t[dir.value][i].length < size) {
+            t = grow(size);
+        }
+        return t[dir.value][i];
+    }
+
+    /**
+     * Returns the interned REDUCE action.
+     * @param dir
+     * @param labelId
+     * @param position
+     * @return a new action if labelId is not in the table
+     */
+    public ReduceAction reduce(ReduceAction.Dir dir, int labelId, int position) {
+        Integer i = labelIndex.get(labelId);
+        if (i == null || position < 0) {
+            return new ReduceAction(dir, labelId, position);
+        }
+        return reduces(dir, i, position + 1)[position];
+    }
+
+    /**
+     * Returns whether the i-th label has its predicate on the tail, such as "ARG0-of".
+     * @param i index in labels
+     * @return
+     */
+    public boolean isReversed(int i) {
+        return reversed.get(i);
+    }
+
+    /**
+     * Returns labels allowed when the concept is the predicate of the relation.
+     * Labels other than ARGn are allowed for any concept, and ARGn only for predicates taking them.
+     * The result must not be modified.
+     * @param conceptId
+     * @return bit set of label indices
+     */
+    public BitSet allowedLabels(int conceptId) {
+        BitSet res = allowedMem.get(conceptId);
+        if (res == null) {
+            if (!Util.isPred(conceptId)) {
+                // it's not a predicate, not allowed to take ARGn
+                res = nonArgs;
+            } else if (preds == null || !preds.containsKey(conceptId)) {
+                // unknown predicate
+                res = all;
+            } else {
+                res = (BitSet)nonArgs.clone();
+                for (int n: preds.get(conceptId).args) {
+                    int argId = Util.i("ARG" + Integer.toString(n));
+                    for (int i = args.nextSetBit(0); i >= 0; i = args.nextSetBit(i + 1)) {
+                        if (flipped[i] == argId) {
+                            res.set(i);
+                        }
+                    }
+                }
+            }
+            allowedMem.put(conceptId, res);
+        }
+        return res;
+    }
+
+    /**
+     * Returns labels allowed when reducing to ROOT.
+     * The result must not be modified.
+     * @return bit set of label indices
+     */
+    public BitSet rootLabels() {
+        return root;
+    }
+
+    private synchronized ReduceAction[][][] grow(int size) {
+        ReduceAction[][][] old = reduces;
+        int oldSize = old[0].length == 0 ? 0 : old[0][0].length;
+        if (oldSize >= size) {
+            return old;
+        }
+        int newSize = Math.max(size, 2 * oldSize);
+        ReduceAction[][][] t = new ReduceAction[old.length][labels.length][];
+        for (ReduceAction.Dir dir: ReduceAction.Dir.values()) {
+            for (int i = 0; i < labels.length; i++) {
+                ReduceAction[] row = new ReduceAction[newSize];
+                // keep existing actions, so that they stay unique
+                System.arraycopy(old[dir.value][i], 0, row, 0, oldSize);
+                for (int position = oldSize; position < newSize; position++) {
+                    row[position] = new ReduceAction(dir, labels[i], position);
+                }
+                t[dir.value][i] = row;
+            }
+        }
+        reduces = t;
+        return t;
+    }
+
+}
@@ -1,15 +1,19 @@
 package np2amr.action;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import np2amr.Util;
 
 public class DummyAction extends Action {
 
+    /**
+     * The only instance, shared by all states.
+     */
+    public static final DummyAction INSTANCE = new DummyAction();
+
     private final List<Integer> fs;
-    public DummyAction() {
-        fs = new ArrayList<>();
-        fs.add(Util.hash("DUMMY".hashCode()));
+    private DummyAction() {
+        fs = Collections.singletonList(Util.hash("DUMMY".hashCode()));
     }
 
     @Override
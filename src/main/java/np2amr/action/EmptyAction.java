@@ -1,15 +1,19 @@
 package np2amr.action;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import np2amr.Util;
 
 public class EmptyAction extends Action {
 
+    /**
+     * The only instance, shared by all states.
+     */
+    public static final EmptyAction INSTANCE = new EmptyAction();
+
     private final List<Integer> fs;
-    public EmptyAction() {
-        fs = new ArrayList<>();
-        fs.add(Util.hash("EMPTY".hashCode()));
+    private EmptyAction() {
+        fs = Collections.singletonList(Util.hash("EMPTY".hashCode()));
     }
 
     @Override
@@ -1,6 +1,7 @@
 package np2amr.action;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import np2amr.Config;
 import np2amr.Util;
@@ -19,15 +20,18 @@ public class ReduceAction extends Action {
 
     private final List<Integer> fs;
 
-    public ReduceAction(Dir dir, int labelId, int position) {
+    /**
+     * Use ActionTable to get interned actions.
+     */
+    ReduceAction(Dir dir, int labelId, int position) {
         this.dir = dir;
         this.labelId = labelId;
         this.position = position;
 
-        fs = new ArrayList<>();
-        fs.add(Util.hash("REDUCE".hashCode(), dir.value));
-        fs.add(Util.hash("REDUCE".hashCode(), dir.value, labelId));
-        fs.add(Util.hash("REDUCE".hashCode(), dir.value, labelId, position));
+        fs = Collections.unmodifiableList(Arrays.asList(
+                Util.hash("REDUCE".hashCode(), dir.value),
+                Util.hash("REDUCE".hashCode(), dir.value, labelId),
+                Util.hash("REDUCE".hashCode(), dir.value, labelId, position)));
     }
 
     @Override
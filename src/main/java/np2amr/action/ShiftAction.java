@@ -1,9 +1,10 @@
 package np2amr.action;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import np2amr.Util;
-import np2amr.amr.Concept;
+import np2amr.amr.Fragment;
 
 public class ShiftAction extends Action {
 
@@ -22,16 +23,20 @@ public class ShiftAction extends Action {
     }
 
     public final Type type;
-    public final Concept concept;
+    public final Fragment concept;
     private final List<Integer> fs;
 
-    public ShiftAction(Type type, Concept concept) {
+    /**
+     * @param type
+     * @param concept fragment to shift
+     */
+    public ShiftAction(Type type, Fragment concept) {
         this.type = type;
         this.concept = concept;
-        fs = new ArrayList<>();
-        fs.add(Util.hash("SHIFT".hashCode()));
-        fs.add(Util.hash("SHIFT".hashCode(), type.value));
-        fs.add(Util.hash("SHIFT".hashCode(), type.value, concept.hashCode()));
+        fs = Collections.unmodifiableList(Arrays.asList(
+                Util.hash("SHIFT".hashCode()),
+                Util.hash("SHIFT".hashCode(), type.value),
+                Util.hash("SHIFT".hashCode(), type.value, concept.hashCode())));
     }
 
     @Override
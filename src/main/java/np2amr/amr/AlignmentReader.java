@@ -0,0 +1,421 @@
+package np2amr.amr;
+
+import edu.stanford.nlp.util.IdentityHashSet;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import np2amr.Config;
+import np2amr.CoreNlpWrapper;
+import np2amr.Token;
+import np2amr.Util;
+import np2amr.preprocess.Analysis;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Reads AMRs from JAMR alignment file lazily, one block at a time.
+ * Each call of iterator() reads the file from the beginning, so only the sample being read is kept in memory.
+ * Concept mappings and labels of the samples read so far are collected into conceptTable and labelIds.
+ * I/O errors while iterating are thrown as UncheckedIOException.
+ * The iterators are AutoCloseable, and should be closed when iteration stops before the end of file.
+ */
+public class AlignmentReader implements Iterable<List<Token>> {
+
+    public final Path path;
+
+    /**
+     * Concept fragments of the samples read so far, indexed by lemma ids.
+     */
+    public final Map<Integer, Set<Concept>> conceptTable = new HashMap<>();
+
+    /**
+     * Labels of the samples read so far, including the root label.
+     */
+    public final Set<Integer> labelIds = new HashSet<>();
+
+    private final int rootLabelId;
+
+    // number of sentences analyzed together by CoreNlpWrapper.analyze() before their blocks are processed
+    private static final int PREFETCH_SIZE = 64;
+
+    public AlignmentReader(Path path) {
+        this.path = path;
+        // add root label id
+        this.rootLabelId = Util.i(Config.ROOT_LABEL);
+        labelIds.add(rootLabelId);
+    }
+
+    @Override
+    public Iterator<List<Token>> iterator() {
+        return new SampleIterator();
+    }
+
+    private final class SampleIterator implements Iterator<List<Token>>, AutoCloseable {
+
+        private final BufferedReader br;
+        private final ArrayDeque<String> lines = new ArrayDeque<>();    // lines read ahead
+        private final Map<List<String>, Analysis> analyses = new HashMap<>();   // tokens -> analysis of the sentences read ahead
+        private boolean eof = false;
+        private List<Token> nextAmr;
+
+        // state of the block being read
+        private List<String> tokStrs = null;
+        private Map<String, Concept> nodeStr2Concept = new HashMap<>();
+        private Map<String, IdentityHashSet<Concept>> span2Concepts = new HashMap<>();
+        private Concept root = null;
+        // Note: use IdentityHashMap, so that identity of concepts holds before and after attaching to another concept
+        private IdentityHashMap<Concept, Pair<Integer, Concept>> edges = new IdentityHashMap<>();   // concept -> (label id, head concept)
+        private IdentityHashMap<Concept, Integer> concept2Idx = new IdentityHashMap<>();
+        private boolean ignore = false;
+
+        SampleIterator() {
+            try {
+                br = Files.newBufferedReader(path, Charset.defaultCharset());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            try {
+                nextAmr = readNext();
+            } catch (RuntimeException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Closes the file. Samples not read yet are dropped.
+         */
+        @Override
+        public void close() {
+            eof = true;
+            lines.clear();
+            analyses.clear();
+            nextAmr = null;
+            try {
+                br.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextAmr != null;
+        }
+
+        @Override
+        public List<Token> next() {
+            if (nextAmr == null) {
+                throw new NoSuchElementException();
+            }
+            List<Token> amr = nextAmr;
+            nextAmr = readNext();
+            return amr;
+        }
+
+        /**
+         * Reads lines until the end of the next block that makes a valid AMR.
+         * @return null at the end of file
+         */
+        private List<Token> readNext() {
+            try {
+                String line;
+                while ((line = readLine()) != null) {
+                    List<Token> amr = null;
+                    try {
+                        if (line.startsWith("# THERE WAS AN EXCEPTION IN THE PARSER.")) {
+                            // exception in JAMR parser
+                            ignore = true;
+                            continue;
+                        }
+
+                        if (line.startsWith("#")) {
+                            // only process lines starting with "#"
+                            if (!ignore) {
+                                List<String> es = Io.splitLine(line);
+                                if (es.size() < 2) { throw new RuntimeException(); }
+                                switch (es.get(1)) {
+                                    case "::tok": {
+                                        tokStrs = es.subList(2, es.size());
+                                        break;
+                                    }
+                                    case "::alignments": {
+                                        break;
+                                    }
+                                    case "::node": {
+                                        if (es.size() != 5) {
+                                            throw new RuntimeException("Number of columns is not 3: " + line);
+                                        }
+                                        String nodeStr = es.get(2);
+                                        String name = es.get(3);
+                                        Concept c = new Concept(Util.i(name));
+                                        nodeStr2Concept.put(nodeStr, c);
+
+                                        String spanStr = es.get(4);
+                                        int spanFrom = Integer.valueOf(spanStr.split("-")[0]);
+                                        concept2Idx.put(c, spanFrom);
+                                        IdentityHashSet<Concept> concepts = span2Concepts.get(spanStr);
+                                        if (concepts == null) {
+                                            concepts = new IdentityHashSet<>();
+                                            span2Concepts.put(spanStr, concepts);
+                                        }
+                                        concepts.add(c);
+                                        break;
+                                    }
+                                    case "::root": {
+                                        String nodeStr = es.get(2);
+                                        root = nodeStr2Concept.get(nodeStr);
+                                        break;
+                                    }
+                                    case "::edge": {
+                                        String nodeStr1 = es.get(5);    // parent
+                                        String nodeStr2 = es.get(6);    // child
+                                        String labelStr = es.get(3);
+                                        int labelId  = Util.i(labelStr);
+
+                                        // register label
+                                        labelIds.add(labelId);
+                                        if (Util.isReversedLabel(labelId)) {
+                                            // if reversed label, register the counterpart
+                                            labelIds.add(Util.flipLabel(labelId));
+                                        }
+
+                                        Concept c1 = nodeStr2Concept.get(nodeStr1); // head
+                                        Concept c2 = nodeStr2Concept.get(nodeStr2);
+
+                                        assert c1.conceptId == Util.i(es.get(2));
+                                        assert c2.conceptId == Util.i(es.get(4));
+
+                                        edges.put(c2, new ImmutablePair<>(labelId, c1));
+                                        break;
+                                    }
+                                    default: {
+                                        break;
+                                    }
+                                }
+                            }
+                        } else if (tokStrs != null) {
+                            // at the end of block
+                            // create an AMR
+                            if (!ignore)  {
+                                Map<Integer, Integer> goldHeads = new HashMap<>();
+                                Map<Integer, Integer> goldLabelIds = new HashMap<>();
+                                Map<Integer, Integer> goldPositions = new HashMap<>();
+
+                                // connect edges inside fragments
+                                for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
+                                    Set<Concept> cs = e.getValue();
+                                    for (Map.Entry<Concept, Pair<Integer, Concept>> e2: edges.entrySet()) {
+                                        Concept c = e2.getKey();
+                                        Pair<Integer, Concept> p = e2.getValue();
+                                        int labelId = p.getLeft();
+                                        Concept cHead = p.getRight();
+                                        if (cs.contains(cHead) && cs.contains(c)) {
+                                            cHead.addChild(c, labelId);
+                                        }
+                                    }
+                                }
+
+                                // connect edges spanning across two fragments
+                                for (Map.Entry<Concept, Pair<Integer, Concept>> e2: edges.entrySet()) {
+                                    Concept c = e2.getKey();
+                                    Pair<Integer, Concept> p = e2.getValue();
+                                    int labelId = p.getLeft();
+                                    Concept cHead = p.getRight();
+                                    boolean ok = true;  // false if cHead c are from the same fragment
+                                    for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
+                                        IdentityHashSet<Concept> cs = e.getValue();
+                                        if (cs.contains(cHead) && cs.contains(c)) {
+                                            ok = false;
+                                            break;
+                                        }
+                                    }
+                                    if (ok) {
+                                        Concept cRoot = cHead;
+                                        while (cRoot.parent != null) {
+                                            cRoot = cRoot.parent;
+                                        }
+                                        int position = cRoot.getPosition(cHead);
+                                        assert position != -1;
+
+                                        int head = concept2Idx.get(cHead);
+                                        int tail = concept2Idx.get(c);
+                                        goldHeads.put(tail, head);
+                                        goldLabelIds.put(tail, labelId);
+                                        goldPositions.put(tail, position);
+                                    }
+                                }
+
+                                List<Token> toks = new ArrayList<>();
+                                List<Integer> tokIds = new ArrayList<>();
+                                for (String tokStr: tokStrs) {
+                                    tokIds.add(Util.i(tokStr));
+                                }
+                                CoreNlpWrapper.Parse parse = CoreNlpWrapper.parse(tokIds, analyses.remove(tokStrs));
+
+                                Map<Integer, Concept> goldConcepts = new HashMap<>();
+                                for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
+                                    String spanStr = e.getKey();
+                                    String[] es3 = spanStr.split("-");
+
+                                    int spanFrom = Integer.valueOf(es3[0]);
+                                    Set<Concept> cs = e.getValue();
+                                    Concept rootConcept = null;
+                                    for (Concept c: cs) {
+                                        if (c.parent == null) {
+                                            if (rootConcept != null) {
+                                                throw new RuntimeException(String.format("Multiple roots: %s & %s",
+                                                        Util.s(rootConcept.conceptId),
+                                                        Util.s(c.conceptId)));
+                                            }
+                                            rootConcept = c;
+                                        }
+                                    }
+                                    assert rootConcept != null;
+                                    goldConcepts.put(spanFrom, rootConcept);
+                                }
+
+                                // register concept table
+                                for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
+                                    for (Concept c: e.getValue()) {
+                                        if (c.parent == null) {
+                                            // root
+                                            int idx = concept2Idx.get(c);
+                                            int lemmaId = parse.lemmaIds[idx];
+                                            Set<Concept> cs = conceptTable.get(lemmaId);
+                                            if (cs == null) {
+                                                cs = new HashSet<>();
+                                                conceptTable.put(lemmaId, cs);
+                                            }
+                                            cs.add(c);
+                                        }
+                                    }
+                                }
+
+                                toks.add(new Token());  // dummy rootConcept
+                                for (int i = 0; i < tokIds.size(); i++) {
+                                    int surfId = tokIds.get(i);
+                                    int lemmaId = parse.lemmaIds[i];
+                                    int posId = parse.posIds[i];
+                                    int depHead = parse.depHeads[i];
+                                    int depRelId = parse.depRelIds[i];
+                                    Concept goldConcept = goldConcepts.get(i);
+                                    Token tok;
+                                    if (goldConcept == null) {
+                                        tok = new Token(surfId, lemmaId, posId, depHead, depRelId);
+                                    } else {
+                                        // default values for root concept
+                                        int goldHead = 0;
+                                        int goldLabelId = rootLabelId;
+                                        int goldPosition = 0;
+                                        if (goldHeads.containsKey(i)) {
+                                            goldHead = goldHeads.get(i) + 1;
+                                            goldLabelId = goldLabelIds.get(i);
+                                            goldPosition = goldPositions.get(i);
+                                        }
+                                        tok = new Token(surfId, lemmaId, posId, depHead, depRelId, goldConcept, goldHead, goldLabelId, goldPosition);
+                                    }
+                                    toks.add(tok);
+                                }
+                                amr = toks;
+                            }
+                        
+                            // init
+                            ignore = false;
+                            tokStrs = null;
+                            nodeStr2Concept = new HashMap<>();
+                            span2Concepts = new HashMap<>();
+                            root = null;
+                            edges = new IdentityHashMap<>();
+                            concept2Idx = new IdentityHashMap<>();
+                        }
+                    } catch (RuntimeException ex) {
+                        System.err.println(ex);
+                        System.err.println("Failed to read: " + (tokStrs != null ? tokStrs.toString() : ""));
+                        ignore = true;
+                    }
+                    if (amr != null) {
+                        return amr;
+                    }
+                }
+                Logger.getGlobal().log(Level.INFO, "CoreNLP time: " + CoreNlpWrapper.flushTimings());
+                Logger.getGlobal().log(Level.INFO, "CoreNLP cache: " + CoreNlpWrapper.flushCacheStats());
+                return null;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private String readLine() throws IOException {
+            if (lines.isEmpty() && !eof) {
+                prefetch();
+            }
+            return lines.poll();
+        }
+
+        /**
+         * Reads lines of next PREFETCH_SIZE blocks, and analyzes their sentences together with CoreNlpWrapper.analyze().
+         * Strings are mapped to ids only when each block is processed, so ids are given in the same order as without reading ahead.
+         */
+        private void prefetch() throws IOException {
+            // all blocks read ahead last time have been processed
+            analyses.clear();
+            List<List<String>> sentences = new ArrayList<>();
+            boolean inBlock = false;
+            String line;
+            while (sentences.size() < PREFETCH_SIZE) {
+                line = br.readLine();
+                if (line == null) {
+                    eof = true;
+                    br.close();
+                    break;
+                }
+                lines.add(line);
+                if (line.startsWith("#")) {
+                    List<String> es = Io.splitLine(line);
+                    if (es.size() > 2 && es.get(1).equals("::tok")) {
+                        sentences.add(es.subList(2, es.size()));
+                    }
+                    inBlock = true;
+                } else if (inBlock) {
+                    // end of block
+                    inBlock = false;
+                }
+            }
+            // read the rest of the last block
+            while (inBlock && !eof) {
+                line = br.readLine();
+                if (line == null) {
+                    eof = true;
+                    br.close();
+                } else {
+                    lines.add(line);
+                    inBlock = line.startsWith("#");
+                }
+            }
+
+            List<Analysis> as = CoreNlpWrapper.analyze(sentences);
+            for (int i = 0; i < sentences.size(); i++) {
+                if (as.get(i) != null) {
+                    analyses.put(sentences.get(i), as.get(i));
+                }
+            }
+        }
+    }
+
+}
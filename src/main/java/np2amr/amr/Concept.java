@@ -2,6 +2,7 @@ package np2amr.amr;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
@@ -17,18 +18,33 @@ public final class Concept {
     public final static String INDENT = "     ";
 
     public final int conceptId;
-    public List<Pair<Integer, Concept>> children;   // list of (label id, concept)
+    /**
+     * List of (label id, concept), read-only. Use addChild to add children.
+     */
+    public final List<Pair<Integer, Concept>> children;
+    private final List<Pair<Integer, Concept>> childList;
     public Concept parent;
 
+    // structural hash, 0 if not computed yet; reset by addChild
+    // a single field, so that other threads see either 0 or the complete value
+    private int hash = 0;
+
     public Concept(int conceptId) {
         this.conceptId = conceptId;
-        this.children = new ArrayList<>();
+        this.childList = new ArrayList<>();
+        this.children = Collections.unmodifiableList(childList);
         this.parent = null;
     }
 
+    /**
+     * @param conceptId
+     * @param children copied, so that later changes to the list don't affect this concept
+     * @param parent
+     */
     public Concept(int conceptId, List<Pair<Integer, Concept>> children, Concept parent) {
         this.conceptId = conceptId;
-        this.children = children;
+        this.childList = new ArrayList<>(children);
+        this.children = Collections.unmodifiableList(childList);
         this.parent = parent;
     }
 
@@ -38,7 +54,8 @@ public final class Concept {
      */
     public Concept(Concept orig) {
         this.conceptId = orig.conceptId;
-        this.children = new ArrayList<>();
+        this.childList = new ArrayList<>();
+        this.children = Collections.unmodifiableList(childList);
         this.parent = null;
         for (Pair<Integer, Concept> p: orig.children) {
             int labelId = p.getLeft();
@@ -49,8 +66,12 @@ public final class Concept {
     }
 
     public void addChild(Concept c, int labelId) {
-        this.children.add(new ImmutablePair<>(labelId, c));
+        this.childList.add(new ImmutablePair<>(labelId, c));
         c.parent = this;
+        // hashes of all ancestors include this one
+        for (Concept a = this; a != null; a = a.parent) {
+            a.hash = 0;
+        }
     }
 
     // if child exists in children, return the label to the child
@@ -265,9 +286,12 @@ public final class Concept {
 
     @Override
     public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
         if (obj instanceof Concept) {
             Concept c2 = (Concept)obj;
-            if (conceptId == c2.conceptId && children.size() == c2.children.size()) {
+            if (conceptId == c2.conceptId && children.size() == c2.children.size() && hashCode() == c2.hashCode()) {
                 for (int i = 0; i < children.size(); i++) {
                     Pair<Integer, Concept> p = children.get(i);
                     Pair<Integer, Concept> p2 = c2.children.get(i);
@@ -283,13 +307,18 @@ public final class Concept {
 
     @Override
     public int hashCode() {
-        int hash = 7;
+        int hash = this.hash;
+        if (hash != 0) {
+            return hash;
+        }
+        hash = 7;
         hash = 97 * hash + this.conceptId;
         for (Pair<Integer, Concept> p: this.children) {
             int labelId = p.getLeft();
             hash = 97 * hash + labelId;
             hash = 97 * hash + Objects.hashCode(p.getRight());
         }
+        this.hash = hash;
         return hash;
     }
 
@@ -0,0 +1,387 @@
+package np2amr.amr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import np2amr.Config;
+import np2amr.StringIdMap;
+import np2amr.Token;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+
+/**
+ * Binary cache of a preprocessed training corpus, i.e. the result of Io.loadAlignment.
+ * Loading the cache skips CoreNLP entirely.
+ *
+ * The cache is valid only for the same content of the alignment file and the same preprocessor, and only if the current string-id vocabulary
+ * is a prefix of the vocabulary saved in the cache, so that ids in the cache mean the same strings.
+ * Strings the current vocabulary lacks are registered in the saved order when the cache is loaded.
+ *
+ * Layout (big-endian):
+ *   magic, version, SHA-1 of the alignment file (20 bytes), name of the preprocessor,
+ *   vocabulary: size, strings
+ *   labels: size, label ids
+ *   concept table: size, (lemma id, number of concepts, concepts)*
+ *   sentences: size, (number of tokens, tokens)*
+ * A concept is written in pre-order as: concept id, number of children, (label id, child)*.
+ * The dummy root token is not written.
+ *
+ * An opened cache is an Iterable of AMRs that decodes sentences from the mapped file lazily,
+ * so only the sentence being processed is kept on the heap.
+ */
+public class CorpusCache implements Iterable<List<Token>> {
+
+    private static final int MAGIC = 0x4E504143;    // "NPAC"
+    private static final int VERSION = 2;
+
+    /**
+     * All concept fragements that appeared in the corpus.
+     */
+    public final Map<Integer, Set<Concept>> conceptTable;
+
+    /**
+     * All labels that appeared in the corpus.
+     */
+    public final Set<Integer> labelIds;
+
+    /**
+     * Number of AMRs.
+     */
+    public final int size;
+
+    private final ByteBuffer sentences;   // positioned at the first sentence
+
+    private CorpusCache(Map<Integer, Set<Concept>> conceptTable, Set<Integer> labelIds, int size, ByteBuffer sentences) {
+        this.conceptTable = conceptTable;
+        this.labelIds = labelIds;
+        this.size = size;
+        this.sentences = sentences;
+    }
+
+    /**
+     * Opens the cache of alignPath, building it first by a pass over alignPath if cachePath is not valid.
+     * The pass keeps only one sentence in memory at a time.
+     * @param alignPath JAMR alignment file
+     * @param cachePath cache file, created if it doesn't exist
+     * @return
+     * @throws IOException
+     */
+    public static CorpusCache open(Path alignPath, Path cachePath) throws IOException {
+        CorpusCache cache = load(cachePath, alignPath);
+        if (cache == null) {
+            AlignmentReader reader = new AlignmentReader(alignPath);
+            try {
+                save(cachePath, alignPath, reader, reader.conceptTable, reader.labelIds);
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            Logger.getGlobal().log(Level.INFO, "Saved corpus cache: " + cachePath);
+            cache = load(cachePath, alignPath);
+            if (cache == null) {
+                throw new RuntimeException("Failed to load corpus cache just saved: " + cachePath);
+            }
+        } else {
+            Logger.getGlobal().log(Level.INFO, "Loaded corpus cache: " + cachePath);
+        }
+        return cache;
+    }
+
+    /**
+     * Loads a corpus from cachePath if it is valid for alignPath, otherwise reads alignPath and saves the cache.
+     * Unlike open(), all AMRs are decoded into memory.
+     * @param alignPath JAMR alignment file
+     * @param cachePath cache file, created if it doesn't exist
+     * @return AMRs, concept mappings, and used labels
+     * @throws IOException
+     */
+    public static Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> loadAlignment(Path alignPath, Path cachePath) throws IOException {
+        CorpusCache cache = open(alignPath, cachePath);
+        List<List<Token>> amrs = new ArrayList<>(cache.size);
+        for (List<Token> amr: cache) {
+            amrs.add(amr);
+        }
+        return new ImmutableTriple<>(amrs, cache.conceptTable, cache.labelIds);
+    }
+
+    static byte[] digest(Path path) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (InputStream is = Files.newInputStream(path)) {
+                byte[] buf = new byte[1 << 16];
+                int n;
+                while ((n = is.read(buf)) > 0) {
+                    md.update(buf, 0, n);
+                }
+            }
+            return md.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Saves a corpus read from alignPath with the current vocabulary.
+     * amrs are written while they are iterated, and conceptTable and labelIds are read only after that,
+     * so they can be the ones an AlignmentReader fills while being iterated.
+     * The file is written to a temporary file first, so a broken cache is never left behind.
+     * @param cachePath
+     * @param alignPath
+     * @param amrs
+     * @param conceptTable
+     * @param labelIds
+     * @throws IOException
+     */
+    public static void save(Path cachePath, Path alignPath, Iterable<List<Token>> amrs, Map<Integer, Set<Concept>> conceptTable, Set<Integer> labelIds) throws IOException {
+        // sentences are written first, because the vocabulary and the tables are complete only after reading all of them
+        Path sentencesPath = cachePath.resolveSibling(cachePath.getFileName() + ".sentences.tmp");
+        Path tmpPath = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+        int amrNum = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sentencesPath), 1 << 16))) {
+            for (List<Token> toks: amrs) {
+                out.writeInt(toks.size() - 1);
+                for (Token tok: toks.subList(1, toks.size())) {
+                    out.writeInt(tok.surfId);
+                    out.writeInt(tok.lemmaId);
+                    out.writeInt(tok.posId);
+                    out.writeInt(tok.depHead);
+                    out.writeInt(tok.depRelId);
+                    if (tok.goldConcept == null) {
+                        out.writeBoolean(false);
+                    } else {
+                        out.writeBoolean(true);
+                        writeConcept(out, tok.goldConcept);
+                        out.writeInt(tok.goldHead);
+                        out.writeInt(tok.goldLabelId);
+                        out.writeInt(tok.goldPosition);
+                    }
+                }
+                amrNum++;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(digest(alignPath));
+            byte[] preprocessorName = Config.preprocessorName.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(preprocessorName.length);
+            out.write(preprocessorName);
+
+            // vocabulary
+            StringIdMap stringIdMap = Config.stringIdMap;
+            List<String> vocab;
+            synchronized (stringIdMap) {
+                vocab = new ArrayList<>(stringIdMap.id2str);
+            }
+            out.writeInt(vocab.size());
+            for (String str: vocab) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            // labels
+            out.writeInt(labelIds.size());
+            for (int labelId: labelIds) {
+                out.writeInt(labelId);
+            }
+
+            // concept table
+            out.writeInt(conceptTable.size());
+            for (Map.Entry<Integer, Set<Concept>> e: conceptTable.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (Concept c: e.getValue()) {
+                    writeConcept(out, c);
+                }
+            }
+
+            // sentences
+            out.writeInt(amrNum);
+            Files.copy(sentencesPath, out);
+        } finally {
+            Files.deleteIfExists(sentencesPath);
+        }
+        Files.move(tmpPath, cachePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static void writeConcept(DataOutputStream out, Concept c) throws IOException {
+        out.writeInt(c.conceptId);
+        out.writeInt(c.children.size());
+        for (Pair<Integer, Concept> p: c.children) {
+            out.writeInt(p.getLeft());
+            writeConcept(out, p.getRight());
+        }
+    }
+
+    /**
+     * Opens the cache if it is valid. The concept table and labels are loaded, and sentences are left in the file.
+     * @param cachePath
+     * @param alignPath alignment file the cache must have been made from
+     * @return null if the cache doesn't exist or is not valid for alignPath and the current vocabulary
+     * @throws IOException
+     */
+    public static CorpusCache load(Path cachePath, Path alignPath) throws IOException {
+        if (!Files.exists(cachePath)) {
+            return null;
+        }
+        try (FileChannel fc = new FileInputStream(cachePath.toString()).getChannel()) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                Logger.getGlobal().log(Level.INFO, "Unknown format of corpus cache: " + cachePath);
+                return null;
+            }
+            byte[] alignDigest = new byte[20];
+            buf.get(alignDigest);
+            if (!Arrays.equals(alignDigest, digest(alignPath))) {
+                Logger.getGlobal().log(Level.INFO, "Corpus cache is outdated: " + cachePath);
+                return null;
+            }
+            byte[] preprocessorName = new byte[buf.getInt()];
+            buf.get(preprocessorName);
+            if (!new String(preprocessorName, StandardCharsets.UTF_8).equals(Config.preprocessorName)) {
+                Logger.getGlobal().log(Level.INFO, "Corpus cache is made with another preprocessor: " + cachePath);
+                return null;
+            }
+
+            // vocabulary
+            int vocabSize = buf.getInt();
+            List<String> vocab = new ArrayList<>(vocabSize);
+            for (int i = 0; i < vocabSize; i++) {
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                vocab.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            if (!registerVocab(vocab)) {
+                Logger.getGlobal().log(Level.INFO, "Vocabulary doesn't match corpus cache: " + cachePath);
+                return null;
+            }
+
+            // labels
+            Set<Integer> labelIds = new HashSet<>();
+            int labelSize = buf.getInt();
+            for (int i = 0; i < labelSize; i++) {
+                labelIds.add(buf.getInt());
+            }
+
+            // concept table
+            Map<Integer, Set<Concept>> conceptTable = new HashMap<>();
+            int tableSize = buf.getInt();
+            for (int i = 0; i < tableSize; i++) {
+                int lemmaId = buf.getInt();
+                int conceptNum = buf.getInt();
+                Set<Concept> cs = new HashSet<>();
+                for (int j = 0; j < conceptNum; j++) {
+                    cs.add(readConcept(buf));
+                }
+                conceptTable.put(lemmaId, cs);
+            }
+
+            // sentences are decoded when iterated
+            int amrNum = buf.getInt();
+            return new CorpusCache(conceptTable, labelIds, amrNum, buf.slice());
+        } catch (BufferUnderflowException ex) {
+            Logger.getGlobal().log(Level.INFO, "Corpus cache is truncated: " + cachePath);
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<List<Token>> iterator() {
+        ByteBuffer buf = sentences.duplicate();
+        return new Iterator<List<Token>>() {
+            private int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                return count < size;
+            }
+
+            @Override
+            public List<Token> next() {
+                if (count >= size) {
+                    throw new NoSuchElementException();
+                }
+                count++;
+                return readSentence(buf);
+            }
+        };
+    }
+
+    private static List<Token> readSentence(ByteBuffer buf) {
+        int tokNum = buf.getInt();
+        List<Token> toks = new ArrayList<>(tokNum + 1);
+        toks.add(new Token());  // dummy rootConcept
+        for (int j = 0; j < tokNum; j++) {
+            int surfId = buf.getInt();
+            int lemmaId = buf.getInt();
+            int posId = buf.getInt();
+            int depHead = buf.getInt();
+            int depRelId = buf.getInt();
+            if (buf.get() == 0) {
+                toks.add(new Token(surfId, lemmaId, posId, depHead, depRelId));
+            } else {
+                Concept goldConcept = readConcept(buf);
+                int goldHead = buf.getInt();
+                int goldLabelId = buf.getInt();
+                int goldPosition = buf.getInt();
+                toks.add(new Token(surfId, lemmaId, posId, depHead, depRelId, goldConcept, goldHead, goldLabelId, goldPosition));
+            }
+        }
+        return toks;
+    }
+
+    static Concept readConcept(ByteBuffer buf) {
+        Concept c = new Concept(buf.getInt());
+        int childNum = buf.getInt();
+        for (int i = 0; i < childNum; i++) {
+            int labelId = buf.getInt();
+            c.addChild(readConcept(buf), labelId);
+        }
+        return c;
+    }
+
+    /**
+     * Registers strings of vocab that the current vocabulary lacks.
+     * @param vocab vocabulary saved in the cache
+     * @return false if the current vocabulary is not a prefix of vocab
+     */
+    private static boolean registerVocab(List<String> vocab) {
+        StringIdMap stringIdMap = Config.stringIdMap;
+        synchronized (stringIdMap) {
+            int size = stringIdMap.id2str.size();
+            if (size > vocab.size() || !stringIdMap.id2str.equals(vocab.subList(0, size))) {
+                return false;
+            }
+            for (int i = size; i < vocab.size(); i++) {
+                stringIdMap.getId(vocab.get(i));
+            }
+        }
+        return true;
+    }
+
+}
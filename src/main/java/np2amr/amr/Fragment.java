@@ -0,0 +1,172 @@
+package np2amr.amr;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Immutable concept fragment, flattened into arrays in pre-order traversal.
+ * Position i of the arrays is the concept at position i of Concept.getConceptAtPosition.
+ * States and actions use fragments, and Concept is made only at toAmr() and I/O.
+ *
+ * Fragments are hash-consed: of() returns the same object for the same structure,
+ * so equality is reference equality.
+ * Interned fragments are kept for the lifetime of the process, which are bounded by the concept table and the vocabulary.
+ */
+public final class Fragment {
+
+    /**
+     * Root concept.
+     */
+    public final int conceptId;
+
+    private final int[] conceptIds;
+    private final int[] labelIds;       // label from parent, -1 for root
+    private final int[] parents;        // position of parent, -1 for root
+    private final int hash;
+
+    private static final Map<Key, Fragment> interned = new ConcurrentHashMap<>();
+    private static final Map<Integer, Fragment> singletons = new ConcurrentHashMap<>();
+
+    private Fragment(Concept c) {
+        int size = c.size();
+        this.conceptIds = new int[size];
+        this.labelIds = new int[size];
+        this.parents = new int[size];
+        flatten(c, -1, -1, 0);
+        this.conceptId = c.conceptId;
+        this.hash = c.hashCode();    // same as Concept, so that features of actions don't change
+    }
+
+    private int flatten(Concept c, int labelId, int parent, int pos) {
+        int self = pos;
+        conceptIds[pos] = c.conceptId;
+        labelIds[pos] = labelId;
+        parents[pos] = parent;
+        pos++;
+        for (Pair<Integer, Concept> p: c.children) {
+            pos = flatten(p.getRight(), p.getLeft(), self, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the interned fragment of a single concept.
+     * @param conceptId
+     * @return 
+     */
+    public static Fragment of(int conceptId) {
+        Fragment f = singletons.get(conceptId);
+        if (f == null) {
+            f = intern(new Fragment(new Concept(conceptId)));
+            singletons.put(conceptId, f);
+        }
+        return f;
+    }
+
+    /**
+     * Returns the interned fragment of the same structure as c.
+     * @param c
+     * @return 
+     */
+    public static Fragment of(Concept c) {
+        if (c.children.isEmpty()) {
+            return of(c.conceptId);
+        }
+        return intern(new Fragment(c));
+    }
+
+    private static Fragment intern(Fragment f) {
+        Fragment res = interned.putIfAbsent(new Key(f), f);
+        return res == null ? f : res;
+    }
+
+    /**
+     * Structural identity of a fragment in the interner.
+     */
+    private static final class Key {
+        final Fragment f;
+
+        Key(Fragment f) {
+            this.f = f;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Fragment f2 = ((Key)obj).f;
+                return f.hash == f2.hash && Arrays.equals(f.conceptIds, f2.conceptIds)
+                        && Arrays.equals(f.labelIds, f2.labelIds) && Arrays.equals(f.parents, f2.parents);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return f.hash;
+        }
+    }
+
+    /**
+     * Returns the number of concepts.
+     * @return 
+     */
+    public int size() {
+        return conceptIds.length;
+    }
+
+    /**
+     * Returns the concept id at position (0-indexed pre-order traversal).
+     * @param position
+     * @return 
+     */
+    public int conceptIdAt(int position) {
+        return conceptIds[position];
+    }
+
+    /**
+     * Returns the label from the parent of the concept at position.
+     * @param position
+     * @return -1 for the root
+     */
+    public int labelIdAt(int position) {
+        return labelIds[position];
+    }
+
+    /**
+     * Returns the position of the parent of the concept at position.
+     * @param position
+     * @return -1 for the root
+     */
+    public int parentAt(int position) {
+        return parents[position];
+    }
+
+    /**
+     * Makes a new Concept of the same structure.
+     * @return 
+     */
+    public Concept toConcept() {
+        Concept[] cs = new Concept[conceptIds.length];
+        for (int i = 0; i < cs.length; i++) {
+            cs[i] = new Concept(conceptIds[i]);
+            if (parents[i] >= 0) {
+                // children of a concept appear in order in pre-order traversal
+                cs[parents[i]].addChild(cs[i], labelIds[i]);
+            }
+        }
+        return cs[0];
+    }
+
+    @Override
+    public String toString() {
+        return toConcept().toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+}
@@ -1,13 +1,11 @@
 package np2amr.amr;
 
-import edu.stanford.nlp.util.IdentityHashSet;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -15,18 +13,18 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import np2amr.weights.ArrayWeights;
+import np2amr.weights.CheckpointFile;
 import np2amr.Config;
-import np2amr.CoreNlpWrapper;
 import np2amr.StringIdMap;
 import np2amr.Token;
 import np2amr.Util;
 import np2amr.feature.FeatureTemplate;
-import np2amr.weights.MapWeights;
+import np2amr.preprocess.PcfgPreprocessor;
+import np2amr.weights.OpenHashWeights;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Pair;
@@ -88,247 +86,16 @@ public class Io {
      * @throws IOException 
      */
     public static Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> loadAlignment(Path path) throws IOException {
+        AlignmentReader reader = new AlignmentReader(path);
         List<List<Token>> amrs = new ArrayList<>();
-        Map<Integer, Set<Concept>> conceptTable = new HashMap<>();
-        Set<Integer> labelIds = new HashSet<>();
-
-        // add root label id
-        int rootLabelId = Util.i(Config.ROOT_LABEL);
-        labelIds.add(rootLabelId);
-
-        // process line by line
-        try (BufferedReader br = Files.newBufferedReader(path, Charset.defaultCharset())) {
-            List<String> tokStrs = null;
-            Map<String, Concept> nodeStr2Concept = new HashMap<>();
-            Map<String, IdentityHashSet<Concept>> span2Concepts = new HashMap<>();
-            Concept root = null;
-            // Note: use IdentityHashMap, so that identity of concepts holds before and after attaching to another concept
-            IdentityHashMap<Concept, Pair<Integer, Concept>> edges = new IdentityHashMap<>();   // concept -> (label id, head concept)
-            IdentityHashMap<Concept, Integer> concept2Idx = new IdentityHashMap<>();
-
-            String line;
-            boolean ignore = false;
-            while ((line = br.readLine()) != null) {
-                try {
-                    if (line.startsWith("# THERE WAS AN EXCEPTION IN THE PARSER.")) {
-                        // exception in JAMR parser
-                        ignore = true;
-                        continue;
-                    }
-
-                    if (line.startsWith("#")) {
-                        // only process lines starting with "#"
-                        if (!ignore) {
-                            List<String> es = splitLine(line);
-                            if (es.size() < 2) { throw new RuntimeException(); }
-                            switch (es.get(1)) {
-                                case "::tok": {
-                                    tokStrs = es.subList(2, es.size());
-                                    break;
-                                }
-                                case "::alignments": {
-                                    break;
-                                }
-                                case "::node": {
-                                    if (es.size() != 5) {
-                                        throw new RuntimeException("Number of columns is not 3: " + line);
-                                    }
-                                    String nodeStr = es.get(2);
-                                    String name = es.get(3);
-                                    Concept c = new Concept(Util.i(name));
-                                    nodeStr2Concept.put(nodeStr, c);
-
-                                    String spanStr = es.get(4);
-                                    int spanFrom = Integer.valueOf(spanStr.split("-")[0]);
-                                    concept2Idx.put(c, spanFrom);
-                                    IdentityHashSet<Concept> concepts = span2Concepts.get(spanStr);
-                                    if (concepts == null) {
-                                        concepts = new IdentityHashSet<>();
-                                        span2Concepts.put(spanStr, concepts);
-                                    }
-                                    concepts.add(c);
-                                    break;
-                                }
-                                case "::root": {
-                                    String nodeStr = es.get(2);
-                                    root = nodeStr2Concept.get(nodeStr);
-                                    break;
-                                }
-                                case "::edge": {
-                                    String nodeStr1 = es.get(5);    // parent
-                                    String nodeStr2 = es.get(6);    // child
-                                    String labelStr = es.get(3);
-                                    int labelId  = Util.i(labelStr);
-
-                                    // register label
-                                    labelIds.add(labelId);
-                                    if (Util.isReversedLabel(labelId)) {
-                                        // if reversed label, register the counterpart
-                                        labelIds.add(Util.flipLabel(labelId));
-                                    }
-
-                                    Concept c1 = nodeStr2Concept.get(nodeStr1); // head
-                                    Concept c2 = nodeStr2Concept.get(nodeStr2);
-
-                                    assert c1.conceptId == Util.i(es.get(2));
-                                    assert c2.conceptId == Util.i(es.get(4));
-
-                                    edges.put(c2, new ImmutablePair<>(labelId, c1));
-                                    break;
-                                }
-                                default: {
-                                    break;
-                                }
-                            }
-                        }
-                    } else if (tokStrs != null) {
-                        // at the end of block
-                        // create an AMR
-                        if (!ignore)  {
-                            Map<Integer, Integer> goldHeads = new HashMap<>();
-                            Map<Integer, Integer> goldLabelIds = new HashMap<>();
-                            Map<Integer, Integer> goldPositions = new HashMap<>();
-
-                            // connect edges inside fragments
-                            for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
-                                Set<Concept> cs = e.getValue();
-                                for (Map.Entry<Concept, Pair<Integer, Concept>> e2: edges.entrySet()) {
-                                    Concept c = e2.getKey();
-                                    Pair<Integer, Concept> p = e2.getValue();
-                                    int labelId = p.getLeft();
-                                    Concept cHead = p.getRight();
-                                    if (cs.contains(cHead) && cs.contains(c)) {
-                                        cHead.addChild(c, labelId);
-                                    }
-                                }
-                            }
-
-                            // connect edges spanning across two fragments
-                            for (Map.Entry<Concept, Pair<Integer, Concept>> e2: edges.entrySet()) {
-                                Concept c = e2.getKey();
-                                Pair<Integer, Concept> p = e2.getValue();
-                                int labelId = p.getLeft();
-                                Concept cHead = p.getRight();
-                                boolean ok = true;  // false if cHead c are from the same fragment
-                                for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
-                                    IdentityHashSet<Concept> cs = e.getValue();
-                                    if (cs.contains(cHead) && cs.contains(c)) {
-                                        ok = false;
-                                        break;
-                                    }
-                                }
-                                if (ok) {
-                                    Concept cRoot = cHead;
-                                    while (cRoot.parent != null) {
-                                        cRoot = cRoot.parent;
-                                    }
-                                    int position = cRoot.getPosition(cHead);
-                                    assert position != -1;
-
-                                    int head = concept2Idx.get(cHead);
-                                    int tail = concept2Idx.get(c);
-                                    goldHeads.put(tail, head);
-                                    goldLabelIds.put(tail, labelId);
-                                    goldPositions.put(tail, position);
-                                }
-                            }
-
-                            List<Token> toks = new ArrayList<>();
-                            List<Integer> tokIds = new ArrayList<>();
-                            for (String tokStr: tokStrs) {
-                                tokIds.add(Util.i(tokStr));
-                            }
-                            List<Integer> lemmaIds = CoreNlpWrapper.lemma(tokIds);
-                            List<Integer> posIds = CoreNlpWrapper.pos(tokIds);
-                            Pair<Map<Integer, Integer>, Map<Integer, Integer>> p = CoreNlpWrapper.dep(tokIds);
-                            Map<Integer, Integer> depIdxs = p.getLeft();
-                            Map<Integer, Integer> relIds = p.getRight();
-
-                            Map<Integer, Concept> goldConcepts = new HashMap<>();
-                            for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
-                                String spanStr = e.getKey();
-                                String[] es3 = spanStr.split("-");
-
-                                int spanFrom = Integer.valueOf(es3[0]);
-                                Set<Concept> cs = e.getValue();
-                                Concept rootConcept = null;
-                                for (Concept c: cs) {
-                                    if (c.parent == null) {
-                                        if (rootConcept != null) {
-                                            throw new RuntimeException(String.format("Multiple roots: %s & %s",
-                                                    Util.s(rootConcept.conceptId),
-                                                    Util.s(c.conceptId)));
-                                        }
-                                        rootConcept = c;
-                                    }
-                                }
-                                assert rootConcept != null;
-                                goldConcepts.put(spanFrom, rootConcept);
-                            }
-
-                            // register concept table
-                            for (Map.Entry<String, IdentityHashSet<Concept>> e: span2Concepts.entrySet()) {
-                                for (Concept c: e.getValue()) {
-                                    if (c.parent == null) {
-                                        // root
-                                        int idx = concept2Idx.get(c);
-                                        int lemmaId = lemmaIds.get(idx);
-                                        Set<Concept> cs = conceptTable.get(lemmaId);
-                                        if (cs == null) {
-                                            cs = new HashSet<>();
-                                            conceptTable.put(lemmaId, cs);
-                                        }
-                                        cs.add(c);
-                                    }
-                                }
-                            }
-
-                            toks.add(new Token());  // dummy rootConcept
-                            for (int i = 0; i < tokIds.size(); i++) {
-                                int surfId = tokIds.get(i);
-                                int lemmaId = lemmaIds.get(i);
-                                int posId = posIds.get(i);
-                                int depHead = depIdxs.containsKey(i) ? depIdxs.get(i) + 1 : -1;
-                                int depRelId = relIds.containsKey(i) ? relIds.get(i) : -1;
-                                Concept goldConcept = goldConcepts.get(i);
-                                Token tok;
-                                if (goldConcept == null) {
-                                    tok = new Token(surfId, lemmaId, posId, depHead, depRelId);
-                                } else {
-                                    // default values for root concept
-                                    int goldHead = 0;
-                                    int goldLabelId = rootLabelId;
-                                    int goldPosition = 0;
-                                    if (goldHeads.containsKey(i)) {
-                                        goldHead = goldHeads.get(i) + 1;
-                                        goldLabelId = goldLabelIds.get(i);
-                                        goldPosition = goldPositions.get(i);
-                                    }
-                                    tok = new Token(surfId, lemmaId, posId, depHead, depRelId, goldConcept, goldHead, goldLabelId, goldPosition);
-                                }
-                                toks.add(tok);
-                            }
-                            amrs.add(toks);
-                        }
-                        
-                        // init
-                        ignore = false;
-                        tokStrs = null;
-                        nodeStr2Concept = new HashMap<>();
-                        span2Concepts = new HashMap<>();
-                        root = null;
-                        edges = new IdentityHashMap<>();
-                        concept2Idx = new IdentityHashMap<>();
-                    }
-                } catch (RuntimeException ex) {
-                    System.err.println(ex);
-                    System.err.println("Failed to read: " + (tokStrs != null ? tokStrs.toString() : ""));
-                    ignore = true;
-                }
+        try {
+            for (List<Token> amr: reader) {
+                amrs.add(amr);
             }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
         }
-
-        return new ImmutableTriple<>(amrs, conceptTable, labelIds);
+        return new ImmutableTriple<>(amrs, reader.conceptTable, reader.labelIds);
     }
 
     public static List<String> loadLines(Path path) throws IOException {
@@ -489,6 +256,9 @@ public class Io {
 
         Config.setConfig(path, conceptTable, labelIds, wndictPath, featureNames, weightsType);
 
+        // load preprocessor name, models without it are trained with the PCFG parser
+        Path preprocessorPath = path.resolve(Config.PREPROCESSOR_NAME);
+        Config.preprocessorName = Files.exists(preprocessorPath) ? Io.loadLines(preprocessorPath).get(0) : PcfgPreprocessor.NAME;
     }
 
     private static void copyDataFile(Path srcDirPath, Path trgDirPath, String name) throws IOException {
@@ -503,7 +273,11 @@ public class Io {
         Path wtPath = destPath.resolve(Config.WEIGHTS_TYPE_NAME);
 
         // save stringIdMap
-        List<String> id2str = Config.stringIdMap.id2str;
+        StringIdMap stringIdMap = Config.stringIdMap;
+        List<String> id2str;
+        synchronized (stringIdMap) {
+            id2str = new ArrayList<>(stringIdMap.id2str);
+        }
         try (BufferedWriter bw = Files.newBufferedWriter(stringIdMapPath, Charset.defaultCharset())) {
             int id = 0;
             for (String str: id2str) {
@@ -565,33 +339,37 @@ public class Io {
                 bw.write("MAP\n");
             }
         }
+
+        // save preprocessor name
+        try (BufferedWriter bw = Files.newBufferedWriter(destPath.resolve(Config.PREPROCESSOR_NAME), Charset.defaultCharset())) {
+            bw.write(Config.preprocessorName);
+            bw.write("\n");
+        }
     }
 
     public static ArrayWeights loadArrayWeights(Path path) throws IOException {
-        try (FileChannel fc = new FileInputStream(path.toString()).getChannel()) {
-            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-            int size = buf.getInt();
-            ArrayWeights ws = new ArrayWeights(size);
-            while (buf.hasRemaining()) {
-                int i = buf.getInt();
-                float v = buf.getFloat();
-                ws.add(i, v);
-            }
-            return ws;
+        CheckpointFile file = CheckpointFile.read(path, true);
+        ArrayWeights ws = new ArrayWeights(file.size);
+        ByteBuffer buf = file.entries;
+        while (buf.hasRemaining()) {
+            int i = buf.getInt();
+            float v = buf.getFloat();
+            ws.add(i, v);
         }
+        return ws;
     }
 
-    public static MapWeights loadMapWeights(Path path) throws IOException {
-        try (FileChannel fc = new FileInputStream(path.toString()).getChannel()) {
-            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-            MapWeights ws = new MapWeights();
-            while (buf.hasRemaining()) {
-                int i = buf.getInt();
-                float v = buf.getFloat();
-                ws.add(i, v);
-            }
-            return ws;
+    public static OpenHashWeights loadMapWeights(Path path) throws IOException {
+        CheckpointFile file = CheckpointFile.read(path, false);
+        // keep the load factor of the table under 1/2
+        OpenHashWeights ws = new OpenHashWeights((int)Math.min(1 << 30, 2L * file.count));
+        ByteBuffer buf = file.entries;
+        while (buf.hasRemaining()) {
+            int i = buf.getInt();
+            float v = buf.getFloat();
+            ws.add(i, v);
         }
+        return ws;
     }
 
     
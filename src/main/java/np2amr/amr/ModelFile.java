@@ -0,0 +1,338 @@
+package np2amr.amr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import np2amr.Config;
+import np2amr.StringIdMap;
+import np2amr.feature.FeatureTemplate;
+import np2amr.weights.CompactWeights;
+import np2amr.weights.PackedArrayWeights;
+import np2amr.weights.PackedSortedWeights;
+import np2amr.weights.Quantization;
+import np2amr.weights.ReadOnlyWeights;
+import np2amr.weights.Weights;
+
+/**
+ * Single binary file of a trained model, holding what Io.loadConfig reads from text files and the averaged weights.
+ * Mapping files (noun-to-verb etc.) and the Wordnet dictionary are not included, and are read from the model directory as before.
+ *
+ * The weights are not copied when the model is loaded: they are read directly from the mapped file,
+ * so loading takes time only for the vocabulary and the concept table, and processes loading the same model share the page cache.
+ *
+ * Weights can be compacted when saved: near-zero weights are pruned, values are quantized,
+ * and weights are stored as a dense array or as sorted keys, whichever is smaller.
+ *
+ * Layout:
+ *   header (big-endian): magic, version, weights type, preprocessor name, Wordnet path, feature names
+ *   vocabulary: size, strings
+ *   labels: size, label ids
+ *   concept table: size, (lemma id, number of concepts, concepts)*
+ *   padding to a multiple of 64 bytes
+ *   weights (little-endian): format, size n, modulus, quantization, scale, bucket bits, then
+ *     DENSE: n values of ArrayWeights of size modulus
+ *     SPARSE: offsets of buckets, n keys in ascending order, n values (see PackedSortedWeights)
+ * A concept is written in the same way as CorpusCache.
+ */
+public class ModelFile {
+
+    private static final int MAGIC = 0x4E50414D;    // "NPAM"
+    private static final int VERSION = 2;
+    private static final int ALIGNMENT = 64;
+
+    private static final int DENSE = 0;
+    private static final int SPARSE = 1;
+
+    public final Config.WeightsType weightsType;
+    public final String preprocessorName;
+    public final String wndictPath;
+    public final List<String> featureNames;
+    public final StringIdMap stringIdMap;
+    public final Set<Integer> labelIds;
+    public final Map<Integer, Set<Concept>> conceptTable;
+    /**
+     * Read-only weights backed by the mapped file.
+     */
+    public final Weights<Integer> weights;
+
+    private ModelFile(Config.WeightsType weightsType, String preprocessorName, String wndictPath, List<String> featureNames,
+            StringIdMap stringIdMap, Set<Integer> labelIds, Map<Integer, Set<Concept>> conceptTable, Weights<Integer> weights) {
+        this.weightsType = weightsType;
+        this.preprocessorName = preprocessorName;
+        this.wndictPath = wndictPath;
+        this.featureNames = featureNames;
+        this.stringIdMap = stringIdMap;
+        this.labelIds = labelIds;
+        this.conceptTable = conceptTable;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns true if path is a model file, rather than a weights file saved during training.
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static boolean isModelFile(Path path) throws IOException {
+        if (Files.size(path) < 4) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Saves the current config and weights without loss.
+     * @param path
+     * @param weights ArrayWeights or OpenHashWeights as loaded by Io
+     * @throws IOException
+     */
+    public static void save(Path path, Weights<Integer> weights) throws IOException {
+        save(path, weights, 0f, Quantization.FLOAT32);
+    }
+
+    /**
+     * Saves the current config and compacted weights.
+     * The file is written to a temporary file first, so a broken model file is never left behind.
+     * @param path
+     * @param weights ArrayWeights or OpenHashWeights as loaded by Io
+     * @param threshold weights whose absolute values are at most threshold are dropped
+     * @param quantization encoding of values
+     * @throws IOException
+     */
+    public static void save(Path path, Weights<Integer> weights, float threshold, Quantization quantization) throws IOException {
+        ReadOnlyWeights compacted = CompactWeights.compact(weights, threshold, quantization);
+
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Config.weightsType.ordinal());
+            writeString(out, Config.preprocessorName);
+            writeString(out, Config.wndictPath);
+            out.writeInt(Config.fts.size());
+            for (FeatureTemplate ft: Config.fts) {
+                writeString(out, ft.getName());
+            }
+
+            // vocabulary
+            StringIdMap stringIdMap = Config.stringIdMap;
+            List<String> vocab;
+            synchronized (stringIdMap) {
+                vocab = new ArrayList<>(stringIdMap.id2str);
+            }
+            out.writeInt(vocab.size());
+            for (String str: vocab) {
+                writeString(out, str);
+            }
+
+            // labels
+            out.writeInt(Config.labelIds.size());
+            for (int labelId: Config.labelIds) {
+                out.writeInt(labelId);
+            }
+
+            // concept table
+            out.writeInt(Config.conceptTable.size());
+            for (Map.Entry<Integer, Set<Concept>> e: Config.conceptTable.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (Concept c: e.getValue()) {
+                    CorpusCache.writeConcept(out, c);
+                }
+            }
+
+            while (out.size() % ALIGNMENT != 0) {
+                out.writeByte(0);
+            }
+
+            // weights
+            if (compacted instanceof PackedArrayWeights) {
+                PackedArrayWeights ws = (PackedArrayWeights)compacted;
+                writeInts(out, DENSE, ws.size, ws.size, quantization.ordinal(), Float.floatToRawIntBits(ws.scale), 0);
+                writeBytes(out, ws.values());
+            } else {
+                PackedSortedWeights ws = (PackedSortedWeights)compacted;
+                writeInts(out, SPARSE, ws.size, ws.modulus, quantization.ordinal(), Float.floatToRawIntBits(ws.scale), ws.bucketBits);
+                writeInts(out, ws.offsets());
+                writeInts(out, ws.keys());
+                writeBytes(out, ws.values());
+            }
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+        Logger.getGlobal().log(Level.INFO, String.format("Saved model file (%d bytes): %s", Files.size(path), path));
+    }
+
+    private static void writeInts(DataOutputStream out, int... is) throws IOException {
+        writeInts(out, IntBuffer.wrap(is));
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer is) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        while (is.hasRemaining()) {
+            if (!buf.hasRemaining()) {
+                out.write(buf.array(), 0, buf.position());
+                buf.clear();
+            }
+            buf.putInt(is.get());
+        }
+        out.write(buf.array(), 0, buf.position());
+    }
+
+    private static void writeBytes(DataOutputStream out, ByteBuffer bs) throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        while (bs.hasRemaining()) {
+            int len = Math.min(chunk.length, bs.remaining());
+            bs.get(chunk, 0, len);
+            out.write(chunk, 0, len);
+        }
+    }
+
+    /**
+     * Loads a model file and sets Config in the same way as Io.loadConfig, and returns the weights.
+     * The returned weights are read-only and backed by the mapped file.
+     * @param path model file
+     * @param dataPath directory where mapping files reside
+     * @return
+     * @throws IOException
+     */
+    public static Weights<Integer> load(Path path, Path dataPath) throws IOException {
+        ModelFile model = read(path);
+        Config.stringIdMap = model.stringIdMap;  // initialize stringIdMap before any use of Util.i()
+        Config.setConfig(dataPath, model.conceptTable, model.labelIds, model.wndictPath, model.featureNames, model.weightsType);
+        Config.preprocessorName = model.preprocessorName;
+        return model.weights;
+    }
+
+    /**
+     * Reads a model file without touching Config.
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ModelFile read(Path path) throws IOException {
+        try (FileChannel fc = new FileInputStream(path.toString()).getChannel()) {
+            // the header is read from a mapping of at most 2GB, and weights are mapped separately
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fc.size(), Integer.MAX_VALUE));
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+                throw new RuntimeException("Not a model file: " + path);
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new RuntimeException("Unsupported version of model file: " + version);
+            }
+            Config.WeightsType weightsType = Config.WeightsType.values()[buf.getInt()];
+            String preprocessorName = readString(buf);
+            String wndictPath = readString(buf);
+            int ftNum = buf.getInt();
+            List<String> featureNames = new ArrayList<>();
+            for (int i = 0; i < ftNum; i++) {
+                featureNames.add(readString(buf));
+            }
+
+            // vocabulary
+            int vocabSize = buf.getInt();
+            Map<String, Integer> str2id = new HashMap<>();
+            List<String> id2str = new ArrayList<>(vocabSize);
+            for (int i = 0; i < vocabSize; i++) {
+                String str = readString(buf);
+                str2id.put(str, i);
+                id2str.add(str);
+            }
+            StringIdMap stringIdMap = new StringIdMap(str2id, id2str);
+
+            // labels
+            Set<Integer> labelIds = new HashSet<>();
+            int labelSize = buf.getInt();
+            for (int i = 0; i < labelSize; i++) {
+                labelIds.add(buf.getInt());
+            }
+
+            // concept table
+            Map<Integer, Set<Concept>> conceptTable = new HashMap<>();
+            int tableSize = buf.getInt();
+            for (int i = 0; i < tableSize; i++) {
+                int lemmaId = buf.getInt();
+                int conceptNum = buf.getInt();
+                Set<Concept> cs = new HashSet<>();
+                for (int j = 0; j < conceptNum; j++) {
+                    cs.add(CorpusCache.readConcept(buf));
+                }
+                conceptTable.put(lemmaId, cs);
+            }
+
+            // weights
+            long offset = (buf.position() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            if (offset + 24 > fc.size()) {
+                throw new RuntimeException("Model file is truncated: " + path);
+            }
+            ByteBuffer head = fc.map(FileChannel.MapMode.READ_ONLY, offset, 24).order(ByteOrder.LITTLE_ENDIAN);
+            int format = head.getInt();
+            int n = head.getInt();
+            int modulus = head.getInt();
+            Quantization quantization = Quantization.values()[head.getInt()];
+            float scale = Float.intBitsToFloat(head.getInt());
+            int bucketBits = head.getInt();
+            if ((long)n * 4 > Integer.MAX_VALUE) {
+                throw new RuntimeException("Too many weights: " + n);
+            }
+            long pos = offset + 24;
+            Weights<Integer> weights;
+            if (format == DENSE) {
+                weights = new PackedArrayWeights(map(fc, pos, (long)quantization.bytes * n, path), n, quantization, scale);
+            } else if (format == SPARSE) {
+                long offsetsSize = 4L * ((1 << bucketBits) + 1);
+                IntBuffer offsets = map(fc, pos, offsetsSize, path).asIntBuffer();
+                IntBuffer keys = map(fc, pos + offsetsSize, 4L * n, path).asIntBuffer();
+                ByteBuffer values = map(fc, pos + offsetsSize + 4L * n, (long)quantization.bytes * n, path);
+                weights = new PackedSortedWeights(modulus, bucketBits, offsets, keys, values, quantization, scale);
+            } else {
+                throw new RuntimeException("Unknown format of weights: " + format);
+            }
+
+            return new ModelFile(weightsType, preprocessorName, wndictPath, featureNames, stringIdMap, labelIds, conceptTable, weights);
+        } catch (BufferUnderflowException ex) {
+            throw new RuntimeException("Model file is truncated: " + path, ex);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel fc, long pos, long size, Path path) throws IOException {
+        if (pos + size > fc.size()) {
+            throw new RuntimeException("Model file is truncated: " + path);
+        }
+        return fc.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
@@ -1,10 +1,11 @@
 package np2amr.feature;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import np2amr.State;
 import np2amr.Token;
-import np2amr.action.Action;
 
 public class BetweenTokensFeature extends FeatureTemplate {
 
@@ -27,7 +28,12 @@ public class BetweenTokensFeature extends FeatureTemplate {
     }
 
     @Override
-    public List<List<Integer>> extractFeatures(State state, List<Action> actions) {
+    public Set<StateField> readFields() {
+        return EnumSet.of(StateField.S0, StateField.S1);
+    }
+
+    @Override
+    public List<Integer> extractAtomicFeatures(State state) {
         List<Integer> feats = new ArrayList<>();
 
         int i1 = state.left == null ? -1 : state.left.top;  // s1
@@ -38,7 +44,7 @@ public class BetweenTokensFeature extends FeatureTemplate {
             feats.add(f("s1_s0_t", tok.posId));
         }
 
-        return combineActionFeatures(actions, feats);
+        return feats;
     }
 
 }
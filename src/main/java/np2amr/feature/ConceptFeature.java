@@ -1,9 +1,10 @@
 package np2amr.feature;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import np2amr.State;
-import np2amr.action.Action;
 
 public class ConceptFeature extends FeatureTemplate {
 
@@ -13,7 +14,12 @@ public class ConceptFeature extends FeatureTemplate {
     }
 
     @Override
-    public List<List<Integer>> extractFeatures(State state, List<Action> actions) {
+    public Set<StateField> readFields() {
+        return EnumSet.of(StateField.S0_CONCEPT, StateField.S1_CONCEPT);
+    }
+
+    @Override
+    public List<Integer> extractAtomicFeatures(State state) {
         List<Integer> feats = new ArrayList<>();
 
         // concept id of root
@@ -23,7 +29,7 @@ public class ConceptFeature extends FeatureTemplate {
         feats.add(f("s1", s1Id));
         feats.add(f("s0_s1", s0Id, s1Id));
 
-        return combineActionFeatures(actions, feats);
+        return feats;
     }
     
 }
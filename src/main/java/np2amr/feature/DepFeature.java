@@ -1,10 +1,11 @@
 package np2amr.feature;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import np2amr.State;
 import np2amr.Token;
-import np2amr.action.Action;
 
 public class DepFeature extends FeatureTemplate {
 
@@ -14,7 +15,12 @@ public class DepFeature extends FeatureTemplate {
     }
 
     @Override
-    public List<List<Integer>> extractFeatures(State state, List<Action> actions) {
+    public Set<StateField> readFields() {
+        return EnumSet.of(StateField.S0, StateField.S1, StateField.B0);
+    }
+
+    @Override
+    public List<Integer> extractAtomicFeatures(State state) {
         List<Integer> feats = new ArrayList<>();
 
         Token s0 = getS0(state);
@@ -37,7 +43,7 @@ public class DepFeature extends FeatureTemplate {
         feats.add(f("s1_off", s1Offset));
         feats.add(f("b0_off", b0Offset));
 
-        return combineActionFeatures(actions, feats);
+        return feats;
     }
     
 }
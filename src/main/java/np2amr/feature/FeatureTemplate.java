@@ -3,19 +3,55 @@ package np2amr.feature;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import np2amr.Config;
 import np2amr.State;
+import np2amr.StringIdMap;
 import np2amr.Token;
 import np2amr.Util;
 import np2amr.action.Action;
 
 public abstract class FeatureTemplate {
+    /**
+     * Extract features of the state, which are combined with action features afterwards.
+     * Must only depend on the fields returned by readFields() and the tokens of the sentence.
+     * @param state
+     * @return list of atomic features
+     */
+    public abstract List<Integer> extractAtomicFeatures(State state);
+
+    /**
+     * Returns fields of State that extractAtomicFeatures looks at.
+     * @return 
+     */
+    public abstract Set<StateField> readFields();
+
+    private volatile StateField[] readFieldArr = null;
+    /**
+     * Returns values of the fields of state that extractAtomicFeatures looks at.
+     * @param state
+     * @return 
+     */
+    public int[] signature(State state) {
+        if (readFieldArr == null) {
+            readFieldArr = readFields().toArray(new StateField[0]);
+        }
+        int[] res = new int[readFieldArr.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = readFieldArr[i].value(state);
+        }
+        return res;
+    }
+
     /**
      * Extract features for each action.
      * @param state
      * @param actions list of actions to extract features
      * @return list of feature sets for each action (in the same order as actions)
      */
-    public abstract List<List<Integer>> extractFeatures(State state, List<Action> actions);
+    public List<List<Integer>> extractFeatures(State state, List<Action> actions) {
+        return combineActionFeatures(actions, extractAtomicFeatures(state));
+    }
 
     public List<Integer> extractFeatures(State state, Action action) {
         return extractFeatures(state, Arrays.asList(action)).get(0);
@@ -30,12 +66,13 @@ public abstract class FeatureTemplate {
      * @return list of combined features
      */
     public static List<List<Integer>> combineActionFeatures(List<Action> actions, List<Integer> fs) {
+        int[] partials = partialHashes(fs);
         List<List<Integer>> res = new ArrayList<>();
         for (Action action: actions) {
             List<Integer> cfs = new ArrayList<>();
             for (int af: action.actionFeatures()) {
-                for (int f: fs) {
-                    cfs.add(Util.hash(f, af));
+                for (int p: partials) {
+                    cfs.add(combine(p, af));
                 }
             }
             res.add(cfs);
@@ -43,6 +80,45 @@ public abstract class FeatureTemplate {
         return res;
     }
 
+    /**
+     * Returns intermediate hash states of atomic features, to be combined with action features by combine().
+     * @param fs atomic features
+     * @return 
+     */
+    public static int[] partialHashes(List<Integer> fs) {
+        int[] res = new int[fs.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = Util.hashStep(0, fs.get(i));
+        }
+        return res;
+    }
+
+    /**
+     * Combines an atomic feature with an action feature.
+     * Same as Util.hash(f, af) where partial is the intermediate hash state of f.
+     * @param partial intermediate hash state of atomic feature
+     * @param af action feature
+     * @return combined feature
+     */
+    public static int combine(int partial, int af) {
+        return Util.hashFinish(Util.hashStep(partial, af));
+    }
+
+    private volatile StringIdMap nameIdMap = null;  // written after nameId, so that nameId is visible to other threads
+    private int nameId;
+    /**
+     * Returns id of getName(), which is looked up only once for each StringIdMap.
+     * @return 
+     */
+    private int nameId() {
+        if (nameIdMap != Config.stringIdMap) {
+            // Config.stringIdMap is replaced when a model is loaded
+            nameId = Util.i(getName());
+            nameIdMap = Config.stringIdMap;
+        }
+        return nameId;
+    }
+
     /**
      * Returns a feature (template name, name, val1, val2, ...)
      * @param name
@@ -50,13 +126,12 @@ public abstract class FeatureTemplate {
      * @return hashed feature
      */
     public int f(String name, int... vals) {
-        List<Integer> res = new ArrayList<>();
-        res.add(Util.i(getName()));
-        res.add(Util.i(name));
+        int h = Util.hashStep(0, nameId());
+        h = Util.hashStep(h, Util.i(name));
         for (int val: vals) {
-            res.add(val);
+            h = Util.hashStep(h, val);
         }
-        return Util.hash(res);
+        return Util.hashFinish(h);
     }
 
     public static final int EMPTY_FEAT = "<EMPTY>".hashCode();
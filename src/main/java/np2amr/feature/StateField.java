@@ -0,0 +1,43 @@
+package np2amr.feature;
+
+import np2amr.State;
+
+/**
+ * Parts of State that feature templates look at.
+ * Two states of the same sentence with equal values for all fields read by a template have the same atomic features.
+ */
+public enum StateField {
+    S0 {        // position of the top of stack
+        @Override
+        public int value(State state) {
+            return state.top;
+        }
+    },
+    S1 {        // position of the second element of stack
+        @Override
+        public int value(State state) {
+            return state.left == null ? -1 : state.left.top;
+        }
+    },
+    B0 {        // position of the first element of buffer
+        @Override
+        public int value(State state) {
+            return state.right;
+        }
+    },
+    S0_CONCEPT {    // root concept of the fragment at the top of stack
+        @Override
+        public int value(State state) {
+            return state.concept == null ? -1 : state.concept.conceptId;
+        }
+    },
+    S1_CONCEPT {    // root concept of the fragment at the second element of stack
+        @Override
+        public int value(State state) {
+            return state.left == null || state.left.concept == null ? -1 : state.left.concept.conceptId;
+        }
+    },
+    ;
+
+    public abstract int value(State state);
+}
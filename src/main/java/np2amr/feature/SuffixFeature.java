@@ -1,7 +1,7 @@
 package np2amr.feature;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import np2amr.Token;
 import np2amr.Util;
 
@@ -14,7 +14,7 @@ public abstract class SuffixFeature extends TokenFeature {
         return "suffix" + getSuffixLength();
     }
 
-    private static final Map<Integer, Map<Integer, Integer>> suffixMems = new HashMap<>();
+    private static final Map<Integer, Map<Integer, Integer>> suffixMems = new ConcurrentHashMap<>();
 
     /**
      * Returns id of suffix of given string
@@ -23,10 +23,7 @@ public abstract class SuffixFeature extends TokenFeature {
      */
     public int suffix(int id) {
         int sufLen = getSuffixLength();
-        if (!suffixMems.containsKey(sufLen)) {
-            suffixMems.put(sufLen, new HashMap<>());
-        }
-        Map<Integer, Integer> suffixMem = suffixMems.get(sufLen);
+        Map<Integer, Integer> suffixMem = suffixMems.computeIfAbsent(sufLen, k -> new ConcurrentHashMap<>());
 
         if (suffixMem.containsKey(id)) {
             return suffixMem.get(id);
@@ -1,17 +1,23 @@
 package np2amr.feature;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import np2amr.State;
 import np2amr.Token;
-import np2amr.action.Action;
 
 public abstract class TokenFeature extends FeatureTemplate {
 
     public abstract int getTokenFeature(Token tok);
 
     @Override
-    public List<List<Integer>> extractFeatures(State state, List<Action> actions) {
+    public Set<StateField> readFields() {
+        return EnumSet.of(StateField.S0, StateField.S1, StateField.B0);
+    }
+
+    @Override
+    public List<Integer> extractAtomicFeatures(State state) {
         List<Integer> feats = new ArrayList<>();
 
         Token s0 = getS0(state);
@@ -26,7 +32,7 @@ public abstract class TokenFeature extends FeatureTemplate {
         feats.add(f("s0_s1", s0Id, s1Id));
         feats.add(f("s0_b0", s0Id, b0Id));
 
-        return combineActionFeatures(actions, feats);
+        return feats;
     }
     
 }
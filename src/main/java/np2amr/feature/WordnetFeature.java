@@ -7,17 +7,17 @@ import edu.mit.jwi.item.IWordID;
 import edu.mit.jwi.item.POS;
 import edu.mit.jwi.item.Pointer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import np2amr.Config;
 import np2amr.State;
 import np2amr.Token;
 import np2amr.Util;
-import np2amr.action.Action;
-import np2amr.amr.Concept;
+import np2amr.amr.Fragment;
 
 public class WordnetFeature extends FeatureTemplate {
 
@@ -54,8 +54,8 @@ public class WordnetFeature extends FeatureTemplate {
         return null;
     }
 
-    private static final Map<Integer, List<Integer>> allHypernymIdsNounMem = new HashMap<>();
-    private static final Map<Integer, List<Integer>> allHypernymIdsVerbMem = new HashMap<>();
+    private static final Map<Integer, List<Integer>> allHypernymIdsNounMem = new ConcurrentHashMap<>();
+    private static final Map<Integer, List<Integer>> allHypernymIdsVerbMem = new ConcurrentHashMap<>();
 
     public List<Integer> getAllHypernymIdsNoun(int id) {
         return getAllHypernymIds(id, POS.NOUN, allHypernymIdsNounMem);
@@ -72,11 +72,13 @@ public class WordnetFeature extends FeatureTemplate {
         List<Integer> res = new ArrayList<>();
 
         String str = Util.s(id);
-        ISynset synset = getSynset(str, pos);
-        if (synset != null) {
-            for (ISynset h: allHypernyms(synset)) {
-                String lemma = h.getWords().get(0).getLemma();
-                res.add(Util.i(lemma));
+        synchronized (Config.wndict) {  // Wordnet dictionary is shared by training threads
+            ISynset synset = getSynset(str, pos);
+            if (synset != null) {
+                for (ISynset h: allHypernyms(synset)) {
+                    String lemma = h.getWords().get(0).getLemma();
+                    res.add(Util.i(lemma));
+                }
             }
         }
 
@@ -112,7 +114,7 @@ public class WordnetFeature extends FeatureTemplate {
         }
     }
 
-    public static final Map<Integer, Integer> verbIdMem = new HashMap<>();
+    public static final Map<Integer, Integer> verbIdMem = new ConcurrentHashMap<>();
     /**
      * Removes concept number at the end.
      * e.g. id("walk-01") -> id("walk")
@@ -131,12 +133,17 @@ public class WordnetFeature extends FeatureTemplate {
     }
 
     @Override
-    public List<List<Integer>> extractFeatures(State state, List<Action> actions) {
+    public Set<StateField> readFields() {
+        return EnumSet.of(StateField.S0_CONCEPT, StateField.S1_CONCEPT);
+    }
+
+    @Override
+    public List<Integer> extractAtomicFeatures(State state) {
         List<Integer> feats = new ArrayList<>();
 
         // identified root concept at cs0, cs1
-        Concept cs0 = state.concept;
-        Concept cs1 = state.left == null ? null : state.left.concept;
+        Fragment cs0 = state.concept;
+        Fragment cs1 = state.left == null ? null : state.left.concept;
 
         if (cs0 == null) {
             feats.add(f("cs0", EMPTY_FEAT));
@@ -169,6 +176,6 @@ public class WordnetFeature extends FeatureTemplate {
         }
                 */
 
-        return combineActionFeatures(actions, feats);
+        return feats;
     }
 }
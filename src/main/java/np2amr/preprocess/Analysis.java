@@ -0,0 +1,46 @@
+package np2amr.preprocess;
+
+import java.util.Arrays;
+
+/**
+ * Lemmas, POS tags and dependencies of a sentence as strings, indexed by 0-origin token indices.
+ */
+public final class Analysis {
+
+    public final String[] lemmas;
+    public final String[] poss;
+    public final int[] heads;       // 1-origin index of the head, 0 for the root, -1 if there's no dependency
+    public final String[] rels;     // null if there's no dependency
+
+    public Analysis(String[] lemmas, String[] poss, int[] heads, String[] rels) {
+        assert lemmas.length == poss.length && poss.length == heads.length && heads.length == rels.length;
+        this.lemmas = lemmas;
+        this.poss = poss;
+        this.heads = heads;
+        this.rels = rels;
+    }
+
+    /**
+     * Creates an analysis without dependencies, to be filled by setDependency().
+     * @param lemmas
+     * @param poss
+     */
+    public Analysis(String[] lemmas, String[] poss) {
+        this(lemmas, poss, new int[lemmas.length], new String[lemmas.length]);
+        Arrays.fill(heads, -1);
+    }
+
+    /**
+     * Sets the head of a token. Dependencies of tokens out of the sentence are ignored.
+     * @param dep 1-origin index of the dependent
+     * @param head 1-origin index of the head, 0 for the root
+     * @param rel
+     */
+    public void setDependency(int dep, int head, String rel) {
+        if (dep >= 1 && dep <= heads.length) {
+            heads[dep - 1] = head;
+            rels[dep - 1] = rel;
+        }
+    }
+
+}
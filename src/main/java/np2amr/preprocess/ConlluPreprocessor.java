@@ -0,0 +1,91 @@
+package np2amr.preprocess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up analyses of sentences in a CoNLL-U file annotated in advance, e.g. by an external parser.
+ * No parsing is done at all, so sentences that are not in the file can't be analyzed.
+ *
+ * Sentences are identified by their word forms joined with spaces.
+ * XPOS is used as the POS tag if given, because features expect Penn Treebank tags, otherwise UPOS.
+ * Multiword tokens and empty nodes are skipped.
+ */
+public class ConlluPreprocessor implements Preprocessor {
+
+    public static final String NAME = "conllu";
+
+    private final Map<String, Analysis> analyses;
+
+    public ConlluPreprocessor(Path path) throws IOException {
+        this.analyses = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<String[]> rows = new ArrayList<>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    add(rows);
+                    rows.clear();
+                } else if (!line.startsWith("#")) {
+                    String[] es = line.split("\t");
+                    if (es.length != 10) {
+                        throw new RuntimeException("Number of columns is not 10: " + line);
+                    }
+                    if (es[0].contains("-") || es[0].contains(".")) {
+                        // multiword token or empty node
+                        continue;
+                    }
+                    rows.add(es);
+                }
+            }
+            add(rows);
+        }
+    }
+
+    private void add(List<String[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<String> forms = new ArrayList<>();
+        String[] lemmas = new String[rows.size()];
+        String[] poss = new String[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            String[] es = rows.get(i);
+            forms.add(es[1]);
+            lemmas[i] = es[2];
+            poss[i] = es[4].equals("_") ? es[3] : es[4];
+        }
+        Analysis a = new Analysis(lemmas, poss);
+        for (String[] es: rows) {
+            if (!es[6].equals("_")) {
+                a.setDependency(Integer.valueOf(es[0]), Integer.valueOf(es[6]), es[7]);
+            }
+        }
+        analyses.put(String.join(" ", forms), a);
+    }
+
+    /**
+     * Returns the number of sentences in the file.
+     * @return
+     */
+    public int size() {
+        return analyses.size();
+    }
+
+    @Override
+    public Analysis analyze(List<String> toks) {
+        Analysis a = analyses.get(String.join(" ", toks));
+        if (a == null) {
+            throw new RuntimeException("Sentence is not in CoNLL-U file: " + toks);
+        }
+        return a;
+    }
+
+}
@@ -0,0 +1,30 @@
+package np2amr.preprocess;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.CoreMap;
+import java.util.List;
+
+/**
+ * Helpers shared by preprocessors based on CoreNLP pipelines.
+ */
+final class CoreNlpPreprocessors {
+
+    private CoreNlpPreprocessors() {}
+
+    /**
+     * Returns lemmas and POS tags of a sentence annotated by CoreNLP, without dependencies.
+     */
+    static Analysis tagged(CoreMap sen) {
+        List<CoreLabel> labels = sen.get(CoreAnnotations.TokensAnnotation.class);
+        String[] lemmas = new String[labels.size()];
+        String[] poss = new String[labels.size()];
+        for (int i = 0; i < labels.size(); i++) {
+            CoreLabel tok = labels.get(i);
+            lemmas[i] = tok.get(CoreAnnotations.LemmaAnnotation.class);
+            poss[i] = tok.get(CoreAnnotations.PartOfSpeechAnnotation.class);
+        }
+        return new Analysis(lemmas, poss);
+    }
+
+}
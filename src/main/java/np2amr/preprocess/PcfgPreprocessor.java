@@ -0,0 +1,47 @@
+package np2amr.preprocess;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.trees.EnglishGrammaticalStructureFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.trees.TypedDependency;
+import edu.stanford.nlp.util.CoreMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Parses sentences with the PCFG parser of CoreNLP, and converts the trees into Stanford dependencies.
+ * The most accurate and the slowest preprocessor.
+ */
+public class PcfgPreprocessor implements Preprocessor {
+
+    public static final String NAME = "pcfg";
+
+    // one pipeline per thread, so that threads don't wait for each other
+    // models are loaded only once, because CoreNLP shares annotators among pipelines with the same properties
+    private final ThreadLocal<StanfordCoreNLP> parser;
+    private final ThreadLocal<EnglishGrammaticalStructureFactory> egsf;
+
+    public PcfgPreprocessor() {
+        Properties props = new Properties();
+        props.setProperty("annotators", "tokenize,ssplit,pos,lemma,parse");
+        this.parser = ThreadLocal.withInitial(() -> new StanfordCoreNLP(props));
+        this.egsf = ThreadLocal.withInitial(EnglishGrammaticalStructureFactory::new);
+    }
+
+    @Override
+    public Analysis analyze(List<String> toks) {
+        Annotation a = parser.get().process(String.join(" ", toks));
+        CoreMap sen = a.get(CoreAnnotations.SentencesAnnotation.class).get(0);
+        Analysis res = CoreNlpPreprocessors.tagged(sen);
+
+        Tree tree = sen.get(TreeCoreAnnotations.TreeAnnotation.class);
+        for (TypedDependency dep: egsf.get().newGrammaticalStructure(tree).typedDependencies()) {
+            res.setDependency(dep.dep().index(), dep.gov().index(), dep.reln().getShortName());
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,19 @@
+package np2amr.preprocess;
+
+import java.util.List;
+
+/**
+ * Gives lemmas, POS tags and dependencies to tokenized sentences.
+ * Implementations must be safe to call from multiple threads.
+ */
+public interface Preprocessor {
+
+    /**
+     * Analyzes a sentence. Must not register strings to Config.stringIdMap, so that ids don't depend on the order
+     * threads finish; CoreNlpWrapper maps the strings to ids.
+     * @param toks surface strings of tokens
+     * @return
+     */
+    Analysis analyze(List<String> toks);
+
+}
@@ -1,10 +1,7 @@
 package np2amr.weights;
 
 import java.io.BufferedWriter;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +19,13 @@ public class ArrayWeights implements Weights<Integer> {
         this.weights = new float[size];
     }
 
+    @Override
+    public ArrayWeights copy() {
+        ArrayWeights ws = new ArrayWeights(size);
+        System.arraycopy(weights, 0, ws.weights, 0, size);
+        return ws;
+    }
+
     public int getIdx(int f) {
         return Math.abs(f) % size;
     }
@@ -31,37 +35,33 @@ public class ArrayWeights implements Weights<Integer> {
         return weights[getIdx(f)];
     }
 
+    @Override
+    public float get(int f) {
+        return weights[getIdx(f)];
+    }
+
     @Override
     public void add(Integer f, float num) {
         weights[getIdx(f)] += num;
     }
 
     @Override
-    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
-        int used = 0;
+    public void add(int f, float num) {
+        weights[getIdx(f)] += num;
+    }
 
-        try (FileChannel fc = new FileOutputStream(destPath.toString()).getChannel()) {
-            ByteBuffer buf = ByteBuffer.allocate(1 << 28);
-            buf.clear();
-            buf.putInt(size);
+    @Override
+    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
+        int used;
+        try (CheckpointFile.Writer w = new CheckpointFile.Writer(destPath, size)) {
             for (int i = 0; i < size; i++) {
-                float w = weights[i];
-                float wAvg = wsAvg.get(i);
-                float value = w - wAvg / t;
+                float value = weights[i] - wsAvg.get(i) / t;
                 if (value != 0f) {
-                    buf.putInt(i);  // write index
-                    buf.putFloat(value);  // write value
-                    used++;
-                }
-                if (buf.remaining() < 2) {
-                    // write buffer
-                    buf.flip();
-                    fc.write(buf);
-                    buf.clear();
+                    w.put(i, value);
                 }
             }
-            buf.flip();
-            fc.write(buf);
+            w.commit();
+            used = w.count();
         }
 
         // report load factor
@@ -0,0 +1,85 @@
+package np2amr.weights;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Implementation of feature weights using an array that many threads can update without locks.
+ * Floats are stored as their int bits and added with compare-and-set, so no update is lost.
+ * Saved in the same format as ArrayWeights.
+ */
+public class AtomicArrayWeights implements Weights<Integer> {
+
+    public final AtomicIntegerArray weights;
+    public final int size;
+
+    public AtomicArrayWeights(int size) {
+        this.size = size;
+        this.weights = new AtomicIntegerArray(size);   // all zero bits, i.e. 0f
+    }
+
+    @Override
+    public AtomicArrayWeights copy() {
+        AtomicArrayWeights ws = new AtomicArrayWeights(size);
+        for (int i = 0; i < size; i++) {
+            ws.weights.set(i, weights.get(i));
+        }
+        return ws;
+    }
+
+    public int getIdx(int f) {
+        return Math.abs(f) % size;
+    }
+
+    @Override
+    public float get(Integer f) {
+        return get((int)f);
+    }
+
+    @Override
+    public float get(int f) {
+        return Float.intBitsToFloat(weights.get(getIdx(f)));
+    }
+
+    @Override
+    public void add(Integer f, float num) {
+        add((int)f, num);
+    }
+
+    @Override
+    public void add(int f, float num) {
+        int i = getIdx(f);
+        int prev;
+        int next;
+        do {
+            prev = weights.get(i);
+            next = Float.floatToRawIntBits(Float.intBitsToFloat(prev) + num);
+        } while (!weights.compareAndSet(i, prev, next));
+    }
+
+    @Override
+    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
+        int used;
+        try (CheckpointFile.Writer w = new CheckpointFile.Writer(destPath, size)) {
+            for (int i = 0; i < size; i++) {
+                float value = Float.intBitsToFloat(weights.get(i)) - wsAvg.get(i) / t;
+                if (value != 0f) {
+                    w.put(i, value);
+                }
+            }
+            w.commit();
+            used = w.count();
+        }
+
+        // report load factor
+        Path loadFactorPath = destPath.resolveSibling(destPath.getFileName() + ".load_factor");
+        try (BufferedWriter bw = Files.newBufferedWriter(loadFactorPath, Charset.defaultCharset())) {
+            bw.write(String.format("%.3f%% [%d/%d]\n", ((double)used*100)/size, used, size));
+        }
+    }
+
+}
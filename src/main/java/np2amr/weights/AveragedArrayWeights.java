@@ -0,0 +1,93 @@
+package np2amr.weights;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Averaged weights in a single array, where the weight of a slot and its sum of (delta * t) are adjacent.
+ * An update touches one cache line instead of one in each of two arrays.
+ * Saved in the same format as ArrayWeights.
+ */
+public class AveragedArrayWeights implements AveragedWeights {
+
+    private final float[] data;     // data[2*i]: weight, data[2*i+1]: sum of (delta * t)
+    public final int size;
+
+    private final Weights<Integer> current;
+
+    public AveragedArrayWeights(int size) {
+        if (size > Integer.MAX_VALUE / 2) {
+            throw new RuntimeException("Feature size is too large: " + size);
+        }
+        this.size = size;
+        this.data = new float[2 * size];
+        this.current = new ReadOnlyWeights() {
+            @Override
+            public float get(int f) {
+                return data[2 * getIdx(f)];
+            }
+        };
+    }
+
+    @Override
+    public AveragedArrayWeights snapshot() {
+        AveragedArrayWeights ws = new AveragedArrayWeights(size);
+        System.arraycopy(data, 0, ws.data, 0, data.length);
+        return ws;
+    }
+
+    public int getIdx(int f) {
+        return Math.abs(f) % size;
+    }
+
+    @Override
+    public Weights<Integer> current() {
+        return current;
+    }
+
+    @Override
+    public void update(int f, float delta, int t) {
+        int i = 2 * getIdx(f);
+        data[i] += delta;
+        data[i + 1] += delta * t;
+    }
+
+    private float averagedValue(int i, int t) {
+        return data[2 * i] - data[2 * i + 1] / t;
+    }
+
+    @Override
+    public Weights<Integer> averaged(int t) {
+        return new ReadOnlyWeights() {
+            @Override
+            public float get(int f) {
+                return averagedValue(getIdx(f), t);
+            }
+        };
+    }
+
+    @Override
+    public void save(Path destPath, int t) throws IOException {
+        int used;
+        try (CheckpointFile.Writer w = new CheckpointFile.Writer(destPath, size)) {
+            for (int i = 0; i < size; i++) {
+                float value = averagedValue(i, t);
+                if (value != 0f) {
+                    w.put(i, value);
+                }
+            }
+            w.commit();
+            used = w.count();
+        }
+
+        // report load factor
+        Path loadFactorPath = destPath.resolveSibling(destPath.getFileName() + ".load_factor");
+        try (BufferedWriter bw = Files.newBufferedWriter(loadFactorPath, Charset.defaultCharset())) {
+            bw.write(String.format("%.3f%% [%d/%d]\n", ((double)used*100)/size, used, size));
+        }
+    }
+
+}
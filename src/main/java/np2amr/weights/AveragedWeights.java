@@ -0,0 +1,47 @@
+package np2amr.weights;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Weights of averaged perceptron.
+ * The average is computed lazily: besides each weight w, the sum u of (delta * t) over its updates is kept,
+ * and the averaged weight at time t is w - u / t.
+ */
+public interface AveragedWeights {
+    /**
+     * Returns weights to use for decoding during training.
+     * @return 
+     */
+    public Weights<Integer> current();
+
+    /**
+     * Adds delta to the weight of f at time t.
+     * @param f
+     * @param delta
+     * @param t 
+     */
+    public void update(int f, float delta, int t);
+
+    /**
+     * Returns a read-only view of averaged weights at time t, without copying.
+     * The view reflects later updates.
+     * @param t
+     * @return 
+     */
+    public Weights<Integer> averaged(int t);
+
+    /**
+     * Saves averaged weights at time t.
+     * @param destPath
+     * @param t
+     * @throws IOException 
+     */
+    public void save(Path destPath, int t) throws IOException;
+
+    /**
+     * Returns a copy that later updates don't affect, so that it can be saved while training goes on.
+     * @return
+     */
+    public AveragedWeights snapshot();
+}
@@ -0,0 +1,50 @@
+package np2amr.weights;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Averaged weights kept in two separate Weights, one for weights and one for sums of (delta * t).
+ */
+public class AveragedWeightsPair implements AveragedWeights {
+
+    public final Weights<Integer> ws;
+    public final Weights<Integer> wsAvg;
+
+    public AveragedWeightsPair(Weights<Integer> ws, Weights<Integer> wsAvg) {
+        this.ws = ws;
+        this.wsAvg = wsAvg;
+    }
+
+    @Override
+    public Weights<Integer> current() {
+        return ws;
+    }
+
+    @Override
+    public void update(int f, float delta, int t) {
+        ws.add(f, delta);
+        wsAvg.add(f, delta * t);
+    }
+
+    @Override
+    public Weights<Integer> averaged(int t) {
+        return new ReadOnlyWeights() {
+            @Override
+            public float get(int f) {
+                return ws.get(f) - wsAvg.get(f) / t;
+            }
+        };
+    }
+
+    @Override
+    public void save(Path destPath, int t) throws IOException {
+        ws.save(destPath, wsAvg, t);
+    }
+
+    @Override
+    public AveragedWeightsPair snapshot() {
+        return new AveragedWeightsPair(ws.copy(), wsAvg.copy());
+    }
+
+}
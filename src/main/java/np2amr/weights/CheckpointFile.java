@@ -0,0 +1,183 @@
+package np2amr.weights;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * File of weights saved during training, holding (index, weight) pairs of non-zero weights.
+ *
+ * Layout (big-endian):
+ *   magic, size of the weight array (0 for weights without size), (index, weight)*,
+ *   trailer: number of pairs, CRC32 of everything before the trailer
+ * A file that is cut short or corrupted doesn't match its trailer, and is refused when it is read.
+ *
+ * Files saved by older versions have neither magic nor trailer: array weights start with the size, and map weights with the first pair.
+ * They are read without verification.
+ */
+public class CheckpointFile {
+
+    private static final int MAGIC = 0x4E50434B;    // "NPCK"
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Size of the weight array, or 0 for weights without size.
+     */
+    public final int size;
+    /**
+     * Number of pairs.
+     */
+    public final int count;
+    /**
+     * (index, weight) pairs, as int and float.
+     */
+    public final ByteBuffer entries;
+
+    private CheckpointFile(int size, int count, ByteBuffer entries) {
+        this.size = size;
+        this.count = count;
+        this.entries = entries;
+    }
+
+    /**
+     * Maps a file and verifies its trailer.
+     * @param path
+     * @param sized true for array weights, which start with the size in files saved by older versions
+     * @return
+     * @throws IOException
+     */
+    public static CheckpointFile read(Path path, boolean sized) throws IOException {
+        try (FileChannel fc = new FileInputStream(path.toString()).getChannel()) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            if (buf.remaining() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+                // older format
+                int size = sized ? buf.getInt() : 0;
+                ByteBuffer entries = buf.slice();
+                return new CheckpointFile(size, entries.remaining() / 8, entries);
+            }
+
+            int entriesSize = buf.limit() - HEADER_SIZE - TRAILER_SIZE;
+            if (entriesSize < 0 || entriesSize % 8 != 0) {
+                throw new RuntimeException("Weights file is broken: " + path);
+            }
+            int count = buf.getInt(buf.limit() - TRAILER_SIZE);
+            int crc = buf.getInt(buf.limit() - TRAILER_SIZE + 4);
+            CRC32 expected = new CRC32();
+            ByteBuffer body = buf.duplicate();
+            body.limit(buf.limit() - TRAILER_SIZE);
+            expected.update(body);
+            if (count != entriesSize / 8 || crc != (int)expected.getValue()) {
+                throw new RuntimeException("Weights file is broken: " + path);
+            }
+
+            buf.position(4);
+            int size = buf.getInt();
+            buf.limit(HEADER_SIZE + entriesSize);
+            return new CheckpointFile(size, count, buf.slice());
+        }
+    }
+
+    /**
+     * Writer of a file through a small buffer, so that weights of any size are written with constant memory.
+     * The file is written to a temporary file, and replaces path only when commit() is called.
+     *
+     *   try (CheckpointFile.Writer w = new CheckpointFile.Writer(path, size)) {
+     *       w.put(i, weight);
+     *       w.commit();
+     *   }
+     */
+    public static class Writer implements Closeable {
+
+        private final Path path;
+        private final Path tmpPath;
+        private final FileChannel fc;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private int count = 0;
+        private boolean committed = false;
+
+        /**
+         * @param path
+         * @param size size of the weight array, or 0 for weights without size
+         * @throws IOException
+         */
+        public Writer(Path path, int size) throws IOException {
+            this.path = path;
+            this.tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.fc = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buf.putInt(MAGIC);
+            buf.putInt(size);
+        }
+
+        /**
+         * Writes a pair.
+         * @param i
+         * @param weight
+         * @throws IOException
+         */
+        public void put(int i, float weight) throws IOException {
+            if (buf.remaining() < 8) {
+                flush();
+            }
+            buf.putInt(i);
+            buf.putFloat(weight);
+            count++;
+        }
+
+        /**
+         * Returns the number of pairs written.
+         * @return
+         */
+        public int count() {
+            return count;
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+            buf.clear();
+        }
+
+        /**
+         * Writes the trailer and moves the file to path.
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            flush();
+            buf.putInt(count);
+            buf.putInt((int)crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+            fc.close();
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        /**
+         * Closes the file, and removes it unless committed.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            fc.close();
+            if (!committed) {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+
+}
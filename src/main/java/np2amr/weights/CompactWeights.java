@@ -0,0 +1,139 @@
+package np2amr.weights;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes read-only copies of trained weights that take less memory:
+ * near-zero weights are pruned, values are quantized, and weights are stored as a dense array or as sorted keys, whichever is smaller.
+ * Buffers are little-endian, in the same layout as the weights section of a model file.
+ */
+public class CompactWeights {
+
+    /**
+     * Returns compacted weights.
+     * @param weights ArrayWeights or OpenHashWeights as loaded from a checkpoint
+     * @param threshold weights whose absolute values are at most threshold are dropped
+     * @param quantization encoding of values
+     * @return PackedArrayWeights or PackedSortedWeights
+     */
+    public static ReadOnlyWeights compact(Weights<Integer> weights, float threshold, Quantization quantization) {
+        // collect kept weights in ascending order of keys
+        int modulus;
+        float[] denseValues = null;
+        int[] keys;
+        float[] values;
+        int total;
+        if (weights instanceof ArrayWeights) {
+            denseValues = ((ArrayWeights)weights).weights;
+            modulus = denseValues.length;
+            int count = 0;
+            for (float w: denseValues) {
+                if (Math.abs(w) > threshold) {
+                    count++;
+                }
+            }
+            keys = new int[count];
+            values = new float[count];
+            int j = 0;
+            for (int i = 0; i < modulus; i++) {
+                if (Math.abs(denseValues[i]) > threshold) {
+                    keys[j] = i;
+                    values[j] = denseValues[i];
+                    j++;
+                }
+            }
+            total = modulus;
+        } else if (weights instanceof OpenHashWeights) {
+            OpenHashWeights ohw = (OpenHashWeights)weights;
+            modulus = 0;
+            long[] entries = new long[ohw.size()];
+            int[] count = {0};
+            ohw.forEach((f, w) -> {
+                if (Math.abs(w) > threshold) {
+                    // feature in the upper bits, so that sorting entries sorts features
+                    entries[count[0]++] = ((long)f << 32) | (Float.floatToRawIntBits(w) & 0xFFFFFFFFL);
+                }
+            });
+            long[] sorted = Arrays.copyOf(entries, count[0]);
+            Arrays.sort(sorted);
+            keys = new int[sorted.length];
+            values = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                keys[i] = (int)(sorted[i] >> 32);
+                values[i] = Float.intBitsToFloat((int)sorted[i]);
+            }
+            total = ohw.size();
+        } else {
+            throw new RuntimeException("Unsupported weights: " + weights.getClass().getName());
+        }
+
+        float maxAbs = 0f;
+        for (float w: values) {
+            maxAbs = Math.max(maxAbs, Math.abs(w));
+        }
+        float scale = quantization.scale(maxAbs);
+
+        ReadOnlyWeights res;
+        long bytes;
+        if (modulus != 0 && (long)modulus * quantization.bytes <= (long)keys.length * (4 + quantization.bytes)) {
+            res = new PackedArrayWeights(encode(denseValues, threshold, quantization, scale), modulus, quantization, scale);
+            bytes = (long)modulus * quantization.bytes;
+        } else {
+            int bucketBits = PackedSortedWeights.bucketBits(keys.length, modulus);
+            int[] offsets = PackedSortedWeights.offsets(keys, modulus, bucketBits);
+            res = new PackedSortedWeights(modulus, bucketBits, IntBuffer.wrap(offsets), IntBuffer.wrap(keys),
+                    encode(values, threshold, quantization, scale), quantization, scale);
+            bytes = 4L * offsets.length + (long)keys.length * (4 + quantization.bytes);
+        }
+        Logger.getGlobal().log(Level.INFO, String.format("Compacted weights: kept %d of %d as %s %s (%d bytes)",
+                keys.length, total, res instanceof PackedArrayWeights ? "dense" : "sparse", quantization, bytes));
+        return res;
+    }
+
+    private static ByteBuffer encode(float[] ws, float threshold, Quantization quantization, float scale) {
+        if ((long)ws.length * quantization.bytes > Integer.MAX_VALUE) {
+            throw new RuntimeException("Too many weights: " + ws.length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(ws.length * quantization.bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (float w: ws) {
+            quantization.put(buf, Math.abs(w) > threshold ? w : 0f, scale);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns the largest and the mean absolute difference between stored weights of original and compacted, and their number.
+     * @param original ArrayWeights or OpenHashWeights
+     * @param compacted
+     * @return
+     */
+    public static String error(Weights<Integer> original, Weights<Integer> compacted) {
+        double[] stats = new double[3];     // max, sum, count
+        OpenHashWeights.EntryConsumer c = (f, w) -> {
+            if (w != 0f) {
+                double d = Math.abs(w - compacted.get(f));
+                stats[0] = Math.max(stats[0], d);
+                stats[1] += d;
+                stats[2]++;
+            }
+        };
+        if (original instanceof ArrayWeights) {
+            float[] ws = ((ArrayWeights)original).weights;
+            for (int i = 0; i < ws.length; i++) {
+                c.accept(i, ws[i]);
+            }
+        } else if (original instanceof OpenHashWeights) {
+            ((OpenHashWeights)original).forEach(c);
+        } else {
+            throw new RuntimeException("Unsupported weights: " + original.getClass().getName());
+        }
+        return String.format("max %.3g, mean %.3g over %d weights", stats[0], stats[2] == 0 ? 0 : stats[1] / stats[2], (long)stats[2]);
+    }
+
+}
@@ -1,10 +1,7 @@
 package np2amr.weights;
 
 import java.io.BufferedWriter;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +19,13 @@ public class MapWeights implements Weights<Integer> {
         weights = new HashMap<>();
     }
 
+    @Override
+    public MapWeights copy() {
+        MapWeights ws = new MapWeights();
+        ws.weights.putAll(weights);
+        return ws;
+    }
+
     @Override
     public float get(Integer f) {
         if (weights.containsKey(f)) {
@@ -31,6 +35,12 @@ public class MapWeights implements Weights<Integer> {
         }
     }
 
+    @Override
+    public float get(int f) {
+        Float w = weights.get(f);
+        return w == null ? 0 : w;
+    }
+
     @Override
     public void add(Integer f, float num) {
         float newVal = num;
@@ -41,31 +51,23 @@ public class MapWeights implements Weights<Integer> {
     }
 
     @Override
-    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
-        int used = 0;
+    public void add(int f, float num) {
+        add((Integer)f, num);
+    }
 
-        try (FileChannel fc = new FileOutputStream(destPath.toString()).getChannel()) {
-            ByteBuffer buf = ByteBuffer.allocate(1 << 28);
-            buf.clear();
+    @Override
+    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
+        int used;
+        try (CheckpointFile.Writer w = new CheckpointFile.Writer(destPath, 0)) {
             for (Map.Entry<Integer, Float> e: weights.entrySet()) {
                 int i = e.getKey();
-                float w = e.getValue();
-                float wAvg = wsAvg.get(i);
-                float value = w - wAvg / t;
+                float value = e.getValue() - wsAvg.get(i) / t;
                 if (value != 0f) {
-                    buf.putInt(i);  // write index
-                    buf.putFloat(value);  // write value
-                    used++;
-                }
-                if (buf.remaining() < 2) {
-                    // write buffer
-                    buf.flip();
-                    fc.write(buf);
-                    buf.clear();
+                    w.put(i, value);
                 }
             }
-            buf.flip();
-            fc.write(buf);
+            w.commit();
+            used = w.count();
         }
 
         // report load factor
@@ -0,0 +1,203 @@
+package np2amr.weights;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Implementation of feature weights using an open-addressing hash table from int to float.
+ * Collisions are resolved by linear probing. Unlike MapWeights, no objects are allocated per feature.
+ */
+public class OpenHashWeights implements Weights<Integer> {
+
+    private static final int DEFAULT_CAPACITY = 1 << 10;
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    // 0 marks an empty slot, so feature 0 is stored separately
+    private static final int FREE_KEY = 0;
+
+    private int[] keys;
+    private float[] values;
+    private int mask;
+    private int used;   // number of used slots
+
+    private boolean hasFreeKey;
+    private float freeKeyValue;
+
+    public OpenHashWeights() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity initial number of slots, rounded up to a power of two
+     */
+    public OpenHashWeights(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.keys = new int[cap];
+        this.values = new float[cap];
+        this.mask = cap - 1;
+        this.used = 0;
+        this.hasFreeKey = false;
+        this.freeKeyValue = 0f;
+    }
+
+    @Override
+    public OpenHashWeights copy() {
+        OpenHashWeights ws = new OpenHashWeights(keys.length);
+        System.arraycopy(keys, 0, ws.keys, 0, keys.length);
+        System.arraycopy(values, 0, ws.values, 0, values.length);
+        ws.used = used;
+        ws.hasFreeKey = hasFreeKey;
+        ws.freeKeyValue = freeKeyValue;
+        return ws;
+    }
+
+    /**
+     * Returns the number of features stored.
+     * @return
+     */
+    public int size() {
+        return hasFreeKey ? used + 1 : used;
+    }
+
+    /**
+     * Returns the number of slots in the table.
+     * @return
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    private static int mix(int f) {
+        // features are already hashed, but low bits of nearby ids must be spread
+        int h = f * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the slot of f, or the empty slot where f would be inserted.
+     */
+    private int slot(int f) {
+        int i = mix(f) & mask;
+        while (keys[i] != FREE_KEY && keys[i] != f) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @Override
+    public float get(Integer f) {
+        return get((int)f);
+    }
+
+    @Override
+    public float get(int f) {
+        if (f == FREE_KEY) {
+            return freeKeyValue;
+        }
+        int i = slot(f);
+        return keys[i] == FREE_KEY ? 0f : values[i];
+    }
+
+    @Override
+    public void add(Integer f, float num) {
+        add((int)f, num);
+    }
+
+    @Override
+    public void add(int f, float num) {
+        if (f == FREE_KEY) {
+            hasFreeKey = true;
+            freeKeyValue += num;
+            return;
+        }
+        int i = slot(f);
+        if (keys[i] == FREE_KEY) {
+            keys[i] = f;
+            values[i] = num;
+            used++;
+            if (used > MAX_LOAD_FACTOR * keys.length) {
+                rehash(keys.length << 1);
+            }
+        } else {
+            values[i] += num;
+        }
+    }
+
+    /**
+     * Consumer of a feature and its weight.
+     */
+    public interface EntryConsumer {
+        public void accept(int f, float w);
+    }
+
+    /**
+     * Calls c with each stored feature and its weight, in no particular order.
+     * @param c
+     */
+    public void forEach(EntryConsumer c) {
+        if (hasFreeKey) {
+            c.accept(FREE_KEY, freeKeyValue);
+        }
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != FREE_KEY) {
+                c.accept(keys[j], values[j]);
+            }
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        float[] oldValues = values;
+        keys = new int[newCapacity];
+        values = new float[newCapacity];
+        mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int f = oldKeys[j];
+            if (f != FREE_KEY) {
+                int i = slot(f);
+                keys[i] = f;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
+        int count;
+        try (CheckpointFile.Writer w = new CheckpointFile.Writer(destPath, 0)) {
+            for (int j = -1; j < keys.length; j++) {
+                // j == -1 stands for the free key
+                int i;
+                float v;
+                if (j < 0) {
+                    if (!hasFreeKey) {
+                        continue;
+                    }
+                    i = FREE_KEY;
+                    v = freeKeyValue;
+                } else if (keys[j] == FREE_KEY) {
+                    continue;
+                } else {
+                    i = keys[j];
+                    v = values[j];
+                }
+                float value = v - wsAvg.get(i) / t;
+                if (value != 0f) {
+                    w.put(i, value);
+                }
+            }
+            w.commit();
+            count = w.count();
+        }
+
+        // report number of features
+        Path featNumPath = destPath.resolveSibling(destPath.getFileName() + ".feat_num");
+        try (BufferedWriter bw = Files.newBufferedWriter(featNumPath, Charset.defaultCharset())) {
+            bw.write(String.format("%d\n", count));
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package np2amr.weights;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only array weights whose values are encoded in a buffer, made by CompactWeights or over a memory-mapped region of a model file.
+ * Weights are read directly from the buffer, so nothing is copied onto the heap when a model file is loaded.
+ * Indices of features are the same as ArrayWeights of the same size.
+ */
+public class PackedArrayWeights extends ReadOnlyWeights {
+
+    private final ByteBuffer values;
+    public final int size;
+    public final Quantization quantization;
+    public final float scale;
+
+    /**
+     * @param values size values encoded by quantization
+     * @param size
+     * @param quantization
+     * @param scale
+     */
+    public PackedArrayWeights(ByteBuffer values, int size, Quantization quantization, float scale) {
+        this.values = values;
+        this.size = size;
+        this.quantization = quantization;
+        this.scale = scale;
+    }
+
+    /**
+     * Returns the encoded values, positioned at the first value.
+     * @return
+     */
+    public ByteBuffer values() {
+        ByteBuffer buf = values.duplicate();
+        buf.clear();
+        buf.limit(size * quantization.bytes);
+        return buf;
+    }
+
+    public int getIdx(int f) {
+        return Math.abs(f) % size;
+    }
+
+    @Override
+    public float get(int f) {
+        // absolute get doesn't touch the position, so the buffer can be shared by threads
+        return quantization.get(values, getIdx(f), scale);
+    }
+
+}
@@ -0,0 +1,164 @@
+package np2amr.weights;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Read-only sparse weights stored as keys sorted in ascending order and their encoded values,
+ * made by CompactWeights or over a memory-mapped region of a model file.
+ *
+ * Keys are split into buckets by their high bits, and offsets of buckets are stored,
+ * so a lookup is a binary search in a bucket of a few keys rather than in all keys.
+ *
+ * A key is the feature itself, or the index of the feature in ArrayWeights of size modulus.
+ */
+public class PackedSortedWeights extends ReadOnlyWeights {
+
+    private static final int ENTRIES_PER_BUCKET = 8;
+    private static final int MAX_BUCKET_BITS = 22;
+
+    /**
+     * Size of ArrayWeights the keys are indices of, or 0 if keys are features.
+     */
+    public final int modulus;
+    public final int bucketBits;
+    private final IntBuffer offsets;
+    private final IntBuffer keys;
+    private final ByteBuffer values;
+    public final Quantization quantization;
+    public final float scale;
+    public final int size;
+
+    /**
+     * @param modulus size of ArrayWeights the keys are indices of, or 0 if keys are features
+     * @param bucketBits
+     * @param offsets (1 << bucketBits) + 1 offsets of buckets in keys, as computed by offsets()
+     * @param keys keys in ascending order
+     * @param values values of keys encoded by quantization
+     * @param quantization
+     * @param scale
+     */
+    public PackedSortedWeights(int modulus, int bucketBits, IntBuffer offsets, IntBuffer keys, ByteBuffer values, Quantization quantization, float scale) {
+        if (offsets.limit() != (1 << bucketBits) + 1) {
+            throw new RuntimeException("Number of bucket offsets doesn't match: " + offsets.limit());
+        }
+        this.modulus = modulus;
+        this.bucketBits = bucketBits;
+        this.offsets = offsets;
+        this.keys = keys;
+        this.values = values;
+        this.quantization = quantization;
+        this.scale = scale;
+        this.size = keys.limit();
+    }
+
+    /**
+     * Returns offsets of buckets, positioned at the first offset.
+     * @return
+     */
+    public IntBuffer offsets() {
+        IntBuffer buf = offsets.duplicate();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns keys, positioned at the first key.
+     * @return
+     */
+    public IntBuffer keys() {
+        IntBuffer buf = keys.duplicate();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns the encoded values, positioned at the first value.
+     * @return
+     */
+    public ByteBuffer values() {
+        ByteBuffer buf = values.duplicate();
+        buf.clear();
+        buf.limit(size * quantization.bytes);
+        return buf;
+    }
+
+    /**
+     * Returns the key of a feature.
+     * @param f
+     * @param modulus
+     * @return
+     */
+    public static int key(int f, int modulus) {
+        return modulus == 0 ? f : Math.abs(f) % modulus;
+    }
+
+    private static int keyBits(int modulus) {
+        return modulus == 0 ? 32 : 32 - Integer.numberOfLeadingZeros(modulus - 1);
+    }
+
+    /**
+     * Returns the number of bits of buckets for n keys.
+     * @param n
+     * @param modulus
+     * @return
+     */
+    public static int bucketBits(int n, int modulus) {
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(1, n / ENTRIES_PER_BUCKET));
+        return Math.min(bits, Math.min(keyBits(modulus), MAX_BUCKET_BITS));
+    }
+
+    /**
+     * Returns the bucket of a key, keeping the order of keys.
+     * @param key
+     * @param modulus
+     * @param bucketBits
+     * @return
+     */
+    public static int bucket(int key, int modulus, int bucketBits) {
+        // flip the sign bit of features, so that the unsigned order is the signed order
+        long u = (modulus == 0 ? key ^ Integer.MIN_VALUE : key) & 0xFFFFFFFFL;
+        return (int)(u >>> (keyBits(modulus) - bucketBits));
+    }
+
+    /**
+     * Returns offsets of buckets in sorted keys, where keys of bucket b are from offsets[b] until offsets[b+1].
+     * @param keys keys in ascending order
+     * @param modulus
+     * @param bucketBits
+     * @return
+     */
+    public static int[] offsets(int[] keys, int modulus, int bucketBits) {
+        int bucketNum = 1 << bucketBits;
+        int[] offsets = new int[bucketNum + 1];
+        int i = 0;
+        for (int b = 0; b <= bucketNum; b++) {
+            while (i < keys.length && bucket(keys[i], modulus, bucketBits) < b) {
+                i++;
+            }
+            offsets[b] = i;
+        }
+        return offsets;
+    }
+
+    @Override
+    public float get(int f) {
+        int key = key(f, modulus);
+        int b = bucket(key, modulus, bucketBits);
+        int lo = offsets.get(b);
+        int hi = offsets.get(b + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = keys.get(mid);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return quantization.get(values, mid, scale);
+            }
+        }
+        return 0f;
+    }
+
+}
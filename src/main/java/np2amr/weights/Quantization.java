@@ -0,0 +1,170 @@
+package np2amr.weights;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of weight values in a buffer.
+ * INT8 stores round(w / scale) with a scale per model, so that the largest weight maps to 127.
+ * FP16 stores w / scale, where the scale is 1 unless the largest weight is beyond half precision.
+ */
+public enum Quantization {
+    FLOAT32(4) {
+        @Override
+        public float get(ByteBuffer values, int i, float scale) {
+            return values.getFloat(4 * i);
+        }
+
+        @Override
+        public void put(ByteBuffer values, float w, float scale) {
+            values.putFloat(w);
+        }
+    },
+    FP16(2) {
+        @Override
+        public float get(ByteBuffer values, int i, float scale) {
+            return fromHalf(values.getShort(2 * i)) * scale;
+        }
+
+        @Override
+        public void put(ByteBuffer values, float w, float scale) {
+            values.putShort(toHalf(w / scale));
+        }
+
+        @Override
+        public float scale(float maxAbs) {
+            // scale only when needed, so that small weights keep their precision
+            return maxAbs > HALF_MAX ? maxAbs / HALF_MAX : 1f;
+        }
+    },
+    INT8(1) {
+        @Override
+        public float get(ByteBuffer values, int i, float scale) {
+            return values.get(i) * scale;
+        }
+
+        @Override
+        public void put(ByteBuffer values, float w, float scale) {
+            values.put((byte)Math.max(-127, Math.min(127, Math.round(w / scale))));
+        }
+
+        @Override
+        public float scale(float maxAbs) {
+            return maxAbs == 0f ? 1f : maxAbs / 127;
+        }
+    };
+
+    /**
+     * Largest finite value of half precision.
+     */
+    public static final float HALF_MAX = 65504f;
+
+    /**
+     * Number of bytes per value.
+     */
+    public final int bytes;
+
+    private Quantization(int bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the i-th value in values.
+     * @param values
+     * @param i
+     * @param scale
+     * @return
+     */
+    public abstract float get(ByteBuffer values, int i, float scale);
+
+    /**
+     * Puts w at the position of values.
+     * @param values
+     * @param w
+     * @param scale
+     */
+    public abstract void put(ByteBuffer values, float w, float scale);
+
+    /**
+     * Returns the scale for weights whose largest absolute value is maxAbs.
+     * @param maxAbs
+     * @return
+     */
+    public float scale(float maxAbs) {
+        return 1f;
+    }
+
+    /**
+     * Returns w after it is encoded and decoded.
+     * @param w
+     * @param scale
+     * @return
+     */
+    public float round(float w, float scale) {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        put(buf, w, scale);
+        return get(buf, 0, scale);
+    }
+
+    /**
+     * Converts a float to IEEE 754 half precision, rounding to the nearest even.
+     * Values too large for half precision become infinity.
+     * @param f
+     * @return
+     */
+    public static short toHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xFF;
+        int mant = bits & 0x7FFFFF;
+        if (exp == 0xFF) {
+            // infinity or NaN
+            return (short)(sign | 0x7C00 | (mant != 0 ? 0x200 : 0));
+        }
+        int e = exp - 127 + 15;
+        if (e >= 0x1F) {
+            return (short)(sign | 0x7C00);
+        }
+        if (e <= 0) {
+            // subnormal in half precision
+            if (e < -10) {
+                return (short)sign;
+            }
+            mant |= 0x800000;
+            int shift = 14 - e;
+            int half = mant >> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rem > halfway || (rem == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short)(sign | half);
+        }
+        int half = (e << 10) | (mant >> 13);
+        int rem = mant & 0x1FFF;
+        if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) {
+            // a carry into the exponent is still correct, up to infinity
+            half++;
+        }
+        return (short)(sign | half);
+    }
+
+    /**
+     * Converts IEEE 754 half precision to a float exactly.
+     * @param h
+     * @return
+     */
+    public static float fromHalf(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exp = (h >>> 10) & 0x1F;
+        int mant = h & 0x3FF;
+        if (exp == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+        }
+        if (exp == 0) {
+            float v = mant * 0x1p-24f;
+            return sign != 0 ? -v : v;
+        }
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+    }
+
+}
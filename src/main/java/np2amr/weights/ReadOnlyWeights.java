@@ -0,0 +1,36 @@
+package np2amr.weights;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Base class of weights that can only be looked up.
+ */
+public abstract class ReadOnlyWeights implements Weights<Integer> {
+
+    @Override
+    public float get(Integer f) {
+        return get((int)f);
+    }
+
+    @Override
+    public void add(Integer f, float num) {
+        throw new UnsupportedOperationException("Weights are read-only.");
+    }
+
+    @Override
+    public void add(int f, float num) {
+        throw new UnsupportedOperationException("Weights are read-only.");
+    }
+
+    @Override
+    public void save(Path destPath, Weights<Integer> wsAvg, int t) throws IOException {
+        throw new UnsupportedOperationException("Weights are read-only.");
+    }
+
+    @Override
+    public Weights<Integer> copy() {
+        throw new UnsupportedOperationException("Weights are read-only.");
+    }
+
+}
@@ -5,7 +5,27 @@ import java.nio.file.Path;
 
 public interface Weights<Feature> {
     public float get(Feature f);
+
+    /**
+     * Same as get(Feature), without boxing the feature.
+     * @param f
+     * @return weight of the feature
+     */
+    public float get(int f);
     public void add(Feature f, float num);
 
+    /**
+     * Same as add(Feature, float), without boxing the feature.
+     * @param f
+     * @param num 
+     */
+    public void add(int f, float num);
+
     public void save(Path destPath, Weights<Feature> wsAvg, int t) throws IOException;
+
+    /**
+     * Returns a copy that later updates of this weights don't affect.
+     * @return
+     */
+    public Weights<Feature> copy();
 }
@@ -0,0 +1,87 @@
+package np2amr;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import np2amr.amr.Concept;
+import np2amr.amr.Io;
+import np2amr.feature.BetweenTokensFeature;
+import np2amr.feature.ConceptFeature;
+import np2amr.feature.DepFeature;
+import np2amr.feature.FeatureTemplate;
+import np2amr.feature.LemmaFeature;
+import np2amr.feature.PosFeature;
+import np2amr.feature.Suffix2Feature;
+import np2amr.feature.Suffix3Feature;
+import np2amr.weights.ArrayWeights;
+import org.apache.commons.lang3.tuple.Triple;
+
+/**
+ * Measures decoding speed on the sentences in testdata, with random weights and 60 extra labels.
+ * Not run by mvn test. Run it after mvn test-compile with:
+ *
+ *   java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) np2amr.BeamDecoderBench [beam widths...]
+ */
+public class BeamDecoderBench {
+
+    private static final String[] FILES = {"industrial_innovation.align", "the_student_union.align", "earthquake_workers.align", "an_advanced_level_in_the_world.align", "train_small"};
+
+    public static void main(String[] args) throws IOException {
+        Config.noun2pred = new HashMap<>();
+        Config.adj2pred = new HashMap<>();
+        Config.verb2pred = new HashMap<>();
+        Config.adj2noun = new HashMap<>();
+        Config.preds = new HashMap<>();
+
+        List<List<Token>> amrs = new ArrayList<>();
+        Map<Integer, Set<Concept>> conceptTable = new HashMap<>();
+        Set<Integer> labelIds = new HashSet<>();
+        for (String name: FILES) {
+            Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(Paths.get("testdata", name));
+            amrs.addAll(t.getLeft());
+            t.getMiddle().forEach((k, v) -> conceptTable.computeIfAbsent(k, x -> new HashSet<>()).addAll(v));
+            labelIds.addAll(t.getRight());
+        }
+        // more labels, so that the number of REDUCE actions is closer to a real model
+        for (int i = 0; i < 60; i++) {
+            labelIds.add(Util.i("label" + i));
+        }
+        Config.conceptTable = conceptTable;
+        Config.labelIds = labelIds;
+
+        List<FeatureTemplate> fts = Arrays.asList(new LemmaFeature(), new PosFeature(), new DepFeature(), new BetweenTokensFeature(),
+                new ConceptFeature(), new Suffix2Feature(), new Suffix3Feature());
+        ArrayWeights ws = new ArrayWeights(1 << 20);
+        Random rand = new Random(0);
+        for (int i = 0; i < ws.size; i++) {
+            ws.weights[i] = (float)rand.nextGaussian();
+        }
+        LinearScorer scorer = new LinearScorer(fts, ws);
+
+        int[] beamWidths = args.length == 0 ? new int[]{1, 8, 32, 128} : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        for (int beamWidth: beamWidths) {
+            BeamDecoder decoder = new BeamDecoder(beamWidth);
+            // first round warms up the JIT
+            for (int round = 0; round < 3; round++) {
+                long steps = 0;
+                long start = System.nanoTime();
+                for (List<Token> toks: amrs) {
+                    State s = decoder.decode(new State(toks), scorer);
+                    steps += Perceptron.stateSequence(s).size() - 1;
+                }
+                double sec = (System.nanoTime() - start) / 1e9;
+                if (round > 0) {
+                    System.out.println(String.format("beam %d: %.0f steps/sec", beamWidth, steps / sec));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package np2amr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CoreNlpWrapperTest {
+
+    public CoreNlpWrapperTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        CoreNlpWrapper.setThreads(1);
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static List<Integer> ids(String sentence) {
+        List<Integer> res = new ArrayList<>();
+        for (String tok: sentence.split(" ")) {
+            res.add(Util.i(tok));
+        }
+        return res;
+    }
+
+    @Test
+    public void testAnnotateKeepsOrder() {
+        CoreNlpWrapper.setThreads(3);
+        List<List<Integer>> sentences = Arrays.asList(
+                ids("the student union"),
+                ids("industrial innovation"),
+                ids("workers killed in the earthquake"),
+                ids("a trojan horse"),
+                ids("the student union"));
+        List<CoreNlpWrapper.Parse> parses = CoreNlpWrapper.annotate(sentences);
+        assertEquals(sentences.size(), parses.size());
+        for (int i = 0; i < sentences.size(); i++) {
+            List<Integer> toks = sentences.get(i);
+            CoreNlpWrapper.Parse p = parses.get(i);
+            assertEquals(toks.size(), p.lemmaIds.length);
+            assertSame(CoreNlpWrapper.parse(toks), p);
+        }
+        assertEquals("union", Util.s(parses.get(0).lemmaIds[2]));
+        assertEquals("worker", Util.s(parses.get(2).lemmaIds[0]));
+        assertEquals("kill", Util.s(parses.get(2).lemmaIds[1]));
+        assertEquals(0, parses.get(0).depHeads[2]);     // "union" is the root
+        assertEquals(3, parses.get(0).depHeads[0]);     // "the" depends on "union"
+        assertEquals("det", Util.s(parses.get(0).depRelIds[0]));
+    }
+
+}
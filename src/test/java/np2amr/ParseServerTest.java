@@ -0,0 +1,177 @@
+package np2amr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import np2amr.amr.Concept;
+import np2amr.amr.Io;
+import np2amr.feature.ConceptFeature;
+import np2amr.feature.LemmaFeature;
+import np2amr.weights.MapWeights;
+import np2amr.weights.ReadOnlyWeights;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParseServerTest {
+
+    private ParseServer server;
+
+    public ParseServerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Config.noun2pred = new HashMap<>();
+        Config.adj2pred = new HashMap<>();
+        Config.verb2pred = new HashMap<>();
+        Config.adj2noun = new HashMap<>();
+        Config.preds = new HashMap<>();
+
+        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(Paths.get("testdata", "the_student_union.align"));
+        Config.conceptTable = t.getMiddle();
+        Config.labelIds = t.getRight();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        LinearScorer scorer = new LinearScorer(Arrays.asList(new LemmaFeature(), new ConceptFeature()), new MapWeights());
+        server = new ParseServer(0, new BeamDecoder(4), scorer, 2, 4);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private String request(String path, String method, String body) throws IOException {
+        return request(path, method, body, 200);
+    }
+
+    private String request(String path, String method, String body, int status) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)new URL("http://localhost:" + server.getPort() + path).openConnection();
+        conn.setRequestMethod(method);
+        if (body != null) {
+            conn.setDoOutput(true);
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        conn.setReadTimeout(10000);
+        assertEquals(status, conn.getResponseCode());
+        try (InputStream is = status == 200 ? conn.getInputStream() : conn.getErrorStream()) {
+            ByteArrayOutputStream bs = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                bs.write(buf, 0, n);
+            }
+            return new String(bs.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        String res = request("/parse", "POST", "the student union\n\nthe union\n");
+        assertTrue(res.startsWith("# ::snt the student union\n("));
+        assertTrue(res.contains("\n# ::snt the union\n("));
+
+        String stats = request("/stats", "GET", null);
+        assertTrue(stats.contains("requests: 1\n"));
+        assertTrue(stats.contains("sentences: 2\n"));
+        assertTrue(stats.contains("errors: 0\n"));
+        assertTrue(stats.contains("rejected: 0\n"));
+    }
+
+    @Test
+    public void testError() throws IOException {
+        server.stop();
+        // weights failing with an Error rather than an exception
+        LinearScorer scorer = new LinearScorer(Arrays.asList(new LemmaFeature(), new ConceptFeature()), new ReadOnlyWeights() {
+            @Override
+            public float get(int f) {
+                throw new AssertionError("broken weights");
+            }
+        });
+        server = new ParseServer(0, new BeamDecoder(4), scorer, 2, 4);
+        server.start();
+
+        String res = request("/parse", "POST", "the student union\n", 500);
+        assertTrue(res.contains("broken weights"));
+        assertTrue(request("/stats", "GET", null).contains("errors: 1\n"));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        server.stop();
+        // weights blocking until released, so that requests hold the worker
+        CountDownLatch release = new CountDownLatch(1);
+        LinearScorer scorer = new LinearScorer(Arrays.asList(new LemmaFeature(), new ConceptFeature()), new ReadOnlyWeights() {
+            @Override
+            public float get(int f) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return 0;
+            }
+        });
+        server = new ParseServer(0, new BeamDecoder(4), scorer, 1, 1);
+        server.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            // one request for the worker, and one for the queue
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(clients.submit(() -> request("/parse", "POST", "the student union\n")));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!request("/stats", "GET", null).contains("queued: 1\n")) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+
+            assertEquals("Server is busy.\n", request("/parse", "POST", "the student union\n", 503));
+            assertTrue(request("/stats", "GET", null).contains("rejected: 1\n"));
+
+            release.countDown();
+            for (Future<String> f: futures) {
+                assertTrue(f.get().startsWith("# ::snt the student union\n("));
+            }
+        } finally {
+            release.countDown();
+            clients.shutdown();
+        }
+        String stats = request("/stats", "GET", null);
+        assertTrue(stats.contains("requests: 2\n"));
+        assertTrue(stats.contains("rejected: 1\n"));
+    }
+
+}
@@ -0,0 +1,170 @@
+package np2amr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import np2amr.action.Action;
+import np2amr.amr.Concept;
+import np2amr.amr.Io;
+import np2amr.feature.ConceptFeature;
+import np2amr.feature.DepFeature;
+import np2amr.feature.FeatureTemplate;
+import np2amr.feature.LemmaFeature;
+import np2amr.feature.PosFeature;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PerceptronTest {
+
+    private static final int FEAT_SIZE = 1 << 16;
+
+    private static List<List<Token>> amrs;
+    private static List<FeatureTemplate> fts;
+    
+    public PerceptronTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Config.noun2pred = new HashMap<>();
+        Config.adj2pred = new HashMap<>();
+        Config.verb2pred = new HashMap<>();
+        Config.adj2noun = new HashMap<>();
+        Config.preds = new HashMap<>();
+
+        amrs = new ArrayList<>();
+        Map<Integer, Set<Concept>> conceptTable = new HashMap<>();
+        Set<Integer> labelIds = new HashSet<>();
+        for (String name: Arrays.asList("industrial_innovation.align", "the_student_union.align", "earthquake_workers.align", "train_small")) {
+            Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(Paths.get("testdata", name));
+            amrs.addAll(t.getLeft());
+            for (Map.Entry<Integer, Set<Concept>> e: t.getMiddle().entrySet()) {
+                conceptTable.computeIfAbsent(e.getKey(), k -> new HashSet<>()).addAll(e.getValue());
+            }
+            labelIds.addAll(t.getRight());
+        }
+        Config.conceptTable = conceptTable;
+        Config.labelIds = labelIds;
+
+        fts = Arrays.asList(new LemmaFeature(), new PosFeature(), new DepFeature(), new ConceptFeature());
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    private static float[] train(int threads, int batchSize) throws IOException {
+        Perceptron p = new Perceptron(fts, new BeamDecoder(4), FEAT_SIZE, threads, batchSize, false);
+        p.train(amrs, 3, null);
+        return weights(p);
+    }
+
+    private static Perceptron trainHogwild(int threads, int iterNum) throws IOException {
+        return trainHogwild(threads, iterNum, amrs);
+    }
+
+    private static Perceptron trainHogwild(int threads, int iterNum, List<List<Token>> samples) throws IOException {
+        Perceptron p = new Perceptron(fts, new BeamDecoder(4), FEAT_SIZE, threads, 1, true);
+        p.train(samples, iterNum, null);
+        return p;
+    }
+
+    /**
+     * Returns the number of samples whose gold AMR is produced by decoding with the current weights.
+     */
+    private static int countCorrect(Perceptron p) {
+        LinearScorer scorer = new LinearScorer(fts, p.ws.current());
+        BeamDecoder decoder = new BeamDecoder(4);
+        int res = 0;
+        for (List<Token> amr: amrs) {
+            State gold = new State(amr);
+            while (gold != null && !gold.isFinal()) {
+                Action a = gold.goldAction();
+                gold = a == null ? null : gold.next(a, 0);
+            }
+            if (gold != null && gold.toAmr().toSexp().equals(decoder.decode(new State(amr), scorer).toAmr().toSexp())) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+    private static float[] weights(Perceptron p) {
+        float[] res = new float[FEAT_SIZE];
+        for (int i = 0; i < FEAT_SIZE; i++) {
+            res[i] = p.ws.current().get(i);
+        }
+        return res;
+    }
+
+    @Test
+    public void testTrainUpdatesWeights() throws IOException {
+        float[] ws = train(1, 1);
+        boolean updated = false;
+        for (float w: ws) {
+            updated |= w != 0f;
+        }
+        assertTrue(updated);
+    }
+
+    @Test
+    public void testMiniBatchDoesNotDependOnThreads() throws IOException {
+        float[] expected = train(1, 3);
+        assertArrayEquals(expected, train(2, 3), 0f);
+        assertArrayEquals(expected, train(4, 3), 0f);
+    }
+
+    @Test
+    public void testAsyncSaveIsSameAsSyncSave() throws IOException {
+        Path syncDir = Files.createTempDirectory("np2amr");
+        Path asyncDir = Files.createTempDirectory("np2amr");
+        new Perceptron(fts, new BeamDecoder(4), FEAT_SIZE, 1, 1, false, false).train(amrs, 3, syncDir);
+        new Perceptron(fts, new BeamDecoder(4), FEAT_SIZE, 1, 1, false, true).train(amrs, 3, asyncDir);
+        for (int i = 1; i <= 3; i++) {
+            assertArrayEquals(Files.readAllBytes(syncDir.resolve("iter" + i)), Files.readAllBytes(asyncDir.resolve("iter" + i)));
+        }
+    }
+
+    @Test
+    public void testHogwildWithOneThreadIsOnline() throws IOException {
+        assertArrayEquals(train(1, 1), weights(trainHogwild(1, 3)), 0f);
+    }
+
+    @Test
+    public void testHogwildLearnsTrainingSamples() throws IOException {
+        // repeat the samples, so that each thread decodes many of them while the other threads update the weights
+        List<List<Token>> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.addAll(amrs);
+        }
+        int untrained = countCorrect(trainHogwild(1, 0));
+        int online = countCorrect(trainHogwild(1, 1, samples));
+        int hogwild = countCorrect(trainHogwild(4, 1, samples));
+        assertTrue(online > untrained);
+        // updates may interleave, so allow one sample fewer than online training
+        assertTrue(hogwild > untrained);
+        assertTrue(hogwild >= online - 1);
+    }
+
+}
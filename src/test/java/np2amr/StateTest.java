@@ -9,11 +9,14 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import np2amr.action.Action;
+import np2amr.action.ActionTable;
 import np2amr.action.ReduceAction;
 import np2amr.action.ShiftAction;
 import np2amr.amr.Concept;
@@ -168,5 +171,155 @@ public class StateTest {
         assertEquals("mod", s(e2.getLeft()));
         assertEquals("earthquake", s(e2.getRight().conceptId));
     }
-    
+
+    @Test
+    public void testToAmrKeepsActions() throws IOException {
+        List<Token> toks = loadToks(Paths.get("testdata", "earthquake_workers.align"));
+        State state = new State(toks);
+        List<Action> acts = goldActions(state);
+        for (Action a: acts) {
+            state = state.next(a, 0);
+        }
+        String amr = state.toAmr().toSexp();
+        // fragments of actions are left as they are, so that the same AMR is made again
+        assertEquals(2, ((ShiftAction)acts.get(1)).concept.size());
+        assertEquals(amr, state.toAmr().toSexp());
+    }
+
+    @Test
+    public void testActionsAreShared() throws IOException {
+        List<Token> toks = loadToks(Paths.get("testdata", "earthquake_workers.align"));
+        Set<Integer> labelIds = Config.labelIds;
+        Config.labelIds = new HashSet<>(Arrays.asList(Util.i("ARG0-of"), Util.i("mod"), Util.i("root")));
+        try {
+            State s1 = new State(toks);
+            s1 = s1.next(s1.goldAction(), 0);
+            Action gold = s1.goldAction();
+            State s2 = s1.next(gold, 0);
+            // actions are made once per sentence, and shared by its states
+            assertTrue(s1.validActions().stream().anyMatch(a -> a == gold));
+            for (Action a: s2.validActions()) {
+                if (a instanceof ReduceAction) {
+                    ReduceAction r = (ReduceAction)a;
+                    assertSame(r, ActionTable.get().reduce(r.dir, r.labelId, r.position));
+                }
+            }
+        } finally {
+            Config.labelIds = labelIds;
+        }
+    }
+
+    /**
+     * Checks the label constraints for a single action without ActionTable, as a reference for validActions.
+     */
+    private static boolean checkLabelConstraints(State state, ReduceAction a) {
+        if (state.left.concept == null) {
+            // reduce to ROOT
+            return a.dir == ReduceAction.Dir.RIGHT && a.position == 0 && a.labelId == Util.i("root");
+        }
+        int tailId;
+        int headId;
+        if (a.dir == ReduceAction.Dir.RIGHT) {
+            tailId = state.concept.conceptId;
+            headId = state.left.concept.conceptIdAt(a.position);
+        } else {
+            tailId = state.left.concept.conceptId;
+            headId = state.concept.conceptIdAt(a.position);
+        }
+
+        // resolve reversed label
+        int labelId = a.labelId;
+        int predId = headId;
+        if (Util.isReversedLabel(a.labelId)) {
+            labelId = Util.flipLabel(a.labelId);
+            predId = tailId;
+        }
+
+        if (!Util.isPred(predId)) {
+            // not allowed to take ARGn
+            return !Util.isArgLabel(labelId);
+        } else if (!Config.preds.containsKey(predId) || !Util.isArgLabel(labelId)) {
+            // unknown predicate, or labels other than ARGn
+            return true;
+        } else {
+            for (int n: Config.preds.get(predId).args) {
+                if (labelId == Util.i("ARG" + n)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void testCompiledLabelConstraints() throws IOException {
+        List<Token> toks = loadToks(Paths.get("testdata", "earthquake_workers.align"));
+        Set<Integer> labelIds = Config.labelIds;
+        Map<Integer, OntoPredicate> preds = Config.preds;
+        Config.labelIds = new HashSet<>();
+        for (String label: Arrays.asList("ARG0", "ARG1", "ARG2", "ARG0-of", "ARG2-of", "mod", "mod-of", "root")) {
+            Config.labelIds.add(Util.i(label));
+        }
+        Config.preds = new HashMap<>();
+        Config.preds.put(Util.i("work-01"), new OntoPredicate(Util.i("work-01"), Arrays.asList(0, 1)));
+        try {
+            ActionTable table = ActionTable.get();
+            int checked = 0;
+            State state = new State(toks);
+            while (!state.isFinal()) {
+                if (state.left != null) {
+                    // all REDUCE actions in the order of validActions, filtered by the constraints checked one by one
+                    List<Action> expected = new ArrayList<>();
+                    int size = state.concept.size();
+                    int leftSize = state.left.concept == null ? 1 : state.left.concept.size();
+                    for (int l = 0; l < table.labels.length; l++) {
+                        if (state.left.top != 0) {
+                            for (int i = 0; i < size; i++) {
+                                ReduceAction a = table.reduces(ReduceAction.Dir.LEFT, l, size)[i];
+                                if (checkLabelConstraints(state, a)) {
+                                    expected.add(a);
+                                }
+                            }
+                        }
+                        if (state.left.top != 0 || state.right == toks.size()) {
+                            for (int i = 0; i < leftSize; i++) {
+                                ReduceAction a = table.reduces(ReduceAction.Dir.RIGHT, l, leftSize)[i];
+                                if (checkLabelConstraints(state, a)) {
+                                    expected.add(a);
+                                }
+                            }
+                        }
+                    }
+                    List<Action> actual = new ArrayList<>();
+                    for (Action a: state.validActions()) {
+                        if (a instanceof ReduceAction) {
+                            actual.add(a);
+                        }
+                    }
+                    assertEquals(expected, actual);
+                    checked += expected.size();
+                }
+                state = state.next(state.goldAction(), 0);
+            }
+            assertTrue(checked > 0);
+        } finally {
+            Config.labelIds = labelIds;
+            Config.preds = preds;
+        }
+    }
+
+    @Test
+    public void testPreparedShiftActions() throws IOException {
+        List<Token> toks = loadToks(Paths.get("testdata", "earthquake_workers.align"));
+        Token.prepare(toks);
+        ShiftAction[] shifts = toks.get(1).shiftActions();
+        assertSame(shifts, toks.get(1).shiftActions());
+        // states decoded from another initial state use the same actions
+        State state = new State(toks);
+        for (ShiftAction a: shifts) {
+            assertTrue(state.validActions().stream().anyMatch(b -> b == a));
+        }
+        assertTrue(Arrays.asList(shifts).contains(state.goldAction()));
+    }
+
 }
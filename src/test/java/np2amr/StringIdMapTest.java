@@ -0,0 +1,84 @@
+package np2amr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StringIdMapTest {
+
+    public StringIdMapTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testGetString() {
+        Map<String, Integer> str2id = new HashMap<>();
+        str2id.put("a", 0);
+        str2id.put("b", 1);
+        StringIdMap m = new StringIdMap(str2id, new ArrayList<>(Arrays.asList("a", "b")));
+        assertEquals("b", m.getString(1));
+        for (int i = 0; i < 100; i++) {
+            // grows past the initial capacity
+            assertEquals(i + 2, m.getId("s" + i));
+        }
+        assertEquals("a", m.getString(0));
+        assertEquals("s99", m.getString(101));
+        assertEquals(102, m.id2str.size());
+        try {
+            m.getString(102);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+        }
+    }
+
+    @Test
+    public void testConcurrentGetString() throws Exception {
+        StringIdMap m = new StringIdMap();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        String str = "s" + i;
+                        assertEquals(str, m.getString(m.getId(str)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f: futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(10000, m.id2str.size());
+    }
+
+}
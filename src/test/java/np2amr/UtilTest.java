@@ -0,0 +1,86 @@
+package np2amr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class UtilTest {
+    
+    public UtilTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Jenkins one-at-a-time hash as it was originally written, which saved models depend on.
+     */
+    private static int referenceHash(List<Integer> arr) {
+        int res = 0;
+        for (int n: arr) {
+            res += n;
+            res += (res << 10);
+            res ^= (res >> 6);
+        }
+        res += (res << 3);
+        res ^= (res >> 11);
+        res += (res << 15);
+        return res;
+    }
+
+    @Test
+    public void testHashParity() {
+        Random rand = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            int[] ns = new int[5];
+            for (int j = 0; j < ns.length; j++) {
+                ns[j] = rand.nextInt();
+            }
+            List<Integer> l = new ArrayList<>();
+            for (int n: ns) {
+                l.add(n);
+            }
+
+            assertEquals(referenceHash(l.subList(0, 1)), Util.hash(ns[0]));
+            assertEquals(referenceHash(l.subList(0, 2)), Util.hash(ns[0], ns[1]));
+            assertEquals(referenceHash(l.subList(0, 3)), Util.hash(ns[0], ns[1], ns[2]));
+            assertEquals(referenceHash(l.subList(0, 4)), Util.hash(ns[0], ns[1], ns[2], ns[3]));
+            assertEquals(referenceHash(l), Util.hash(ns[0], ns[1], ns[2], ns[3], ns[4]));
+            for (int len = 0; len <= ns.length; len++) {
+                assertEquals(referenceHash(l.subList(0, len)), Util.hash(ns, len));
+                assertEquals(referenceHash(l.subList(0, len)), Util.hash(l.subList(0, len)));
+            }
+        }
+    }
+
+    @Test
+    public void testHashKnownValues() {
+        // features of saved models were hashed to these values
+        assertEquals(0, Util.hash());
+        assertEquals(1445520614, Util.hash("SHIFT".hashCode()));
+        assertEquals(1656122260, Util.hash("REDUCE".hashCode(), 1, 42));
+        assertEquals(-232194965, Util.hash(1, 2, 3, 4));
+        assertEquals(-232194965, Util.hash(Arrays.asList(1, 2, 3, 4)));
+    }
+
+}
@@ -1,6 +1,10 @@
 package np2amr.amr;
 
+import java.util.ArrayList;
+import java.util.List;
 import np2amr.Util;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -111,5 +115,35 @@ public class ConceptTest {
         assertEquals("polarity", Util.s(c.children.get(0).getLeft()));
         assertEquals("-", Util.s(c.children.get(0).getRight().conceptId));
     }
-    
+
+    @Test
+    public void testHashAfterAddChild() {
+        Concept c = Concept.fromSexp("(w / work-01 :mod (e / earthquake))");
+        Concept c2 = Concept.fromSexp("(w / work-01 :mod (e / earthquake :mod (b / big)))");
+        int hash = c.hashCode();
+        assertNotEquals(c, c2);
+        // adding a grandchild changes the cached hash of the root
+        c.children.get(0).getRight().addChild(new Concept(Util.i("big")), Util.i("mod"));
+        assertNotEquals(hash, c.hashCode());
+        assertEquals(c2.hashCode(), c.hashCode());
+        assertEquals(c2, c);
+    }
+
+    @Test
+    public void testChildrenAreReadOnly() {
+        List<Pair<Integer, Concept>> children = new ArrayList<>();
+        children.add(new ImmutablePair<>(Util.i("mod"), new Concept(Util.i("big"))));
+        Concept c = new Concept(Util.i("work-01"), children, null);
+        int hash = c.hashCode();
+        // the list given to the constructor is copied
+        children.clear();
+        assertEquals(1, c.children.size());
+        assertEquals(hash, c.hashCode());
+        try {
+            c.children.clear();
+            fail();
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
 }
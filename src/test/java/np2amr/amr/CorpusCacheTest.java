@@ -0,0 +1,127 @@
+package np2amr.amr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import np2amr.Token;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CorpusCacheTest {
+
+    public CorpusCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static void assertSameCorpus(Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> expected,
+            Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> actual) {
+        assertEquals(expected.getMiddle(), actual.getMiddle());
+        assertEquals(expected.getRight(), actual.getRight());
+        assertEquals(expected.getLeft().size(), actual.getLeft().size());
+        for (int i = 0; i < expected.getLeft().size(); i++) {
+            List<Token> toks1 = expected.getLeft().get(i);
+            List<Token> toks2 = actual.getLeft().get(i);
+            assertEquals(toks1.size(), toks2.size());
+            for (int j = 0; j < toks1.size(); j++) {
+                Token t1 = toks1.get(j);
+                Token t2 = toks2.get(j);
+                assertEquals(t1.surfId, t2.surfId);
+                assertEquals(t1.lemmaId, t2.lemmaId);
+                assertEquals(t1.posId, t2.posId);
+                assertEquals(t1.depHead, t2.depHead);
+                assertEquals(t1.depRelId, t2.depRelId);
+                assertEquals(t1.isNoun, t2.isNoun);
+                assertEquals(t1.goldConcept, t2.goldConcept);
+                assertEquals(t1.goldHead, t2.goldHead);
+                assertEquals(t1.goldLabelId, t2.goldLabelId);
+                assertEquals(t1.goldPosition, t2.goldPosition);
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Path alignPath = Paths.get("testdata", "train_small");
+        Path cachePath = Files.createTempDirectory("np2amr").resolve("cache");
+        assertNull(CorpusCache.load(cachePath, alignPath));
+
+        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(alignPath);
+        CorpusCache.save(cachePath, alignPath, t.getLeft(), t.getMiddle(), t.getRight());
+        CorpusCache cache = CorpusCache.load(cachePath, alignPath);
+        assertNotNull(cache);
+        assertEquals(t.getLeft().size(), cache.size);
+        assertSameCorpus(t, new ImmutableTriple<>(toList(cache), cache.conceptTable, cache.labelIds));
+    }
+
+    private static List<List<Token>> toList(Iterable<List<Token>> amrs) {
+        List<List<Token>> res = new ArrayList<>();
+        for (List<Token> amr: amrs) {
+            res.add(amr);
+        }
+        return res;
+    }
+
+    @Test
+    public void testOpen() throws IOException {
+        Path alignPath = Paths.get("testdata", "train_small");
+        Path cachePath = Files.createTempDirectory("np2amr").resolve("cache");
+        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(alignPath);
+
+        // built by streaming over the alignment file
+        CorpusCache cache = CorpusCache.open(alignPath, cachePath);
+        assertSameCorpus(t, new ImmutableTriple<>(toList(cache), cache.conceptTable, cache.labelIds));
+        // can be iterated again
+        assertSameCorpus(t, new ImmutableTriple<>(toList(cache), cache.conceptTable, cache.labelIds));
+    }
+
+    @Test
+    public void testLoadAlignment() throws IOException {
+        Path alignPath = Paths.get("testdata", "the_student_union.align");
+        Path cachePath = Files.createTempDirectory("np2amr").resolve("cache");
+        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = CorpusCache.loadAlignment(alignPath, cachePath);
+        assertTrue(Files.exists(cachePath));
+        assertSameCorpus(Io.loadAlignment(alignPath), t);
+        assertSameCorpus(t, CorpusCache.loadAlignment(alignPath, cachePath));
+    }
+
+    @Test
+    public void testModifiedAlignment() throws IOException {
+        Path dir = Files.createTempDirectory("np2amr");
+        Path alignPath = dir.resolve("align");
+        Path cachePath = dir.resolve("cache");
+        Files.copy(Paths.get("testdata", "earthquake_workers.align"), alignPath);
+        CorpusCache.loadAlignment(alignPath, cachePath);
+        assertNotNull(CorpusCache.load(cachePath, alignPath));
+
+        Files.write(alignPath, "\n".getBytes(), StandardOpenOption.APPEND);
+        assertNull(CorpusCache.load(cachePath, alignPath));
+    }
+
+}
@@ -0,0 +1,71 @@
+package np2amr.amr;
+
+import np2amr.Util;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FragmentTest {
+
+    public FragmentTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testFlatten() {
+        Concept c = Concept.fromSexp("(p / person :ARG0-of (w / work-01 :mod (e / earthquake)) :mod (o / old))");
+        Fragment f = Fragment.of(c);
+        assertEquals(c.size(), f.size());
+        assertEquals(c.conceptId, f.conceptId);
+        assertEquals(c.hashCode(), f.hashCode());
+        assertEquals(-1, f.parentAt(0));
+        assertEquals(-1, f.labelIdAt(0));
+        for (int i = 1; i < f.size(); i++) {
+            Concept child = c.getConceptAtPosition(i);
+            assertEquals(child.conceptId, f.conceptIdAt(i));
+            assertEquals(c.getPosition(child.parent), f.parentAt(i));
+            assertEquals(child.parent.childLabel(child), f.labelIdAt(i));
+        }
+        assertEquals("earthquake", Util.s(f.conceptIdAt(f.size() - 1)));
+    }
+
+    @Test
+    public void testToConcept() {
+        Concept c = Concept.fromSexp("(p / person :ARG0-of (w / work-01 :mod (e / earthquake)) :mod (o / old))");
+        Fragment f = Fragment.of(c);
+        Concept c2 = f.toConcept();
+        assertEquals(c, c2);
+        assertEquals(c.toSexp(), c2.toSexp());
+        // new concept every time
+        assertNotSame(c2, f.toConcept());
+        assertSame(f, Fragment.of(c2));
+        assertNotSame(f, Fragment.of(Concept.fromSexp("(p / person :ARG0-of (w / work-01))")));
+    }
+
+    @Test
+    public void testIntern() {
+        Concept c = Concept.fromSexp("(w / work-01 :mod (e / earthquake))");
+        assertSame(Fragment.of(c), Fragment.of(new Concept(c)));
+        assertSame(Fragment.of(Util.i("work-01")), Fragment.of(new Concept(Util.i("work-01"))));
+        assertNotSame(Fragment.of(c), Fragment.of(Util.i("work-01")));
+    }
+
+}
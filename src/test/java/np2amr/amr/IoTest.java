@@ -3,10 +3,16 @@ package np2amr.amr;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import np2amr.Config;
+import np2amr.CoreNlpWrapper;
+import np2amr.StringIdMap;
 import np2amr.Token;
+import np2amr.Util;
 import org.apache.commons.lang3.tuple.Triple;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -108,4 +114,73 @@ public class IoTest {
         assertEquals(2, toks.get(6).goldHead);
     }
 
+    @Test
+    public void testAlignmentReader() throws IOException {
+        Path path = Paths.get("testdata", "train_small");
+        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(path);
+        AlignmentReader reader = new AlignmentReader(path);
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            for (List<Token> toks: reader) {
+                List<Token> expected = t.getLeft().get(count);
+                assertEquals(expected.size(), toks.size());
+                for (int i = 0; i < toks.size(); i++) {
+                    assertEquals(expected.get(i).lemmaId, toks.get(i).lemmaId);
+                    assertEquals(expected.get(i).goldConcept, toks.get(i).goldConcept);
+                    assertEquals(expected.get(i).goldHead, toks.get(i).goldHead);
+                }
+                count++;
+            }
+            assertEquals(t.getLeft().size(), count);
+            assertEquals(t.getMiddle(), reader.conceptTable);
+            assertEquals(t.getRight(), reader.labelIds);
+        }
+    }
+
+    @Test
+    public void testAlignmentReaderClose() throws Exception {
+        AlignmentReader reader = new AlignmentReader(Paths.get("testdata", "train_small"));
+        Iterator<List<Token>> it = reader.iterator();
+        assertTrue(it instanceof AutoCloseable);
+        it.next();
+        ((AutoCloseable)it).close();   // stop before the end of file
+        assertFalse(it.hasNext());
+        ((AutoCloseable)it).close();   // closing again does nothing
+    }
+
+    /**
+     * Reads all samples into a new vocabulary, and returns the strings in the order of their ids.
+     */
+    private static List<String> readVocabulary(Path path, int threads) {
+        StringIdMap saved = Config.stringIdMap;
+        Config.stringIdMap = new StringIdMap();
+        // cached ids are of the other vocabulary
+        CoreNlpWrapper.setCacheSize(CoreNlpWrapper.DEFAULT_CACHE_SIZE);
+        Util.reversedLabelMem.clear();
+        Util.normalizedLabelMem.clear();
+        CoreNlpWrapper.setThreads(threads);
+        try {
+            for (List<Token> toks: new AlignmentReader(path)) {
+                assertFalse(toks.isEmpty());
+            }
+            return new ArrayList<>(Config.stringIdMap.id2str);
+        } finally {
+            Config.stringIdMap = saved;
+            CoreNlpWrapper.setCacheSize(CoreNlpWrapper.DEFAULT_CACHE_SIZE);
+            Util.reversedLabelMem.clear();
+            Util.normalizedLabelMem.clear();
+            CoreNlpWrapper.setThreads(1);
+        }
+    }
+
+    @Test
+    public void testAlignmentReaderVocabularyOrder() {
+        // sentences read ahead by threads don't change the order strings are registered
+        List<String> vocab = readVocabulary(Paths.get("testdata", "industrial_innovation.align"), 3);
+        assertTrue(vocab.indexOf("ARG1") < vocab.indexOf("industrial"));
+        assertTrue(vocab.indexOf("industrial") < vocab.indexOf("NN"));
+        Path path = Paths.get("testdata", "train_small");
+        assertEquals(readVocabulary(path, 1), readVocabulary(path, 3));
+    }
+
 }
@@ -0,0 +1,159 @@
+package np2amr.amr;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import np2amr.Config;
+import np2amr.Token;
+import np2amr.feature.ConceptFeature;
+import np2amr.feature.LemmaFeature;
+import np2amr.weights.ArrayWeights;
+import np2amr.weights.OpenHashWeights;
+import np2amr.weights.PackedArrayWeights;
+import np2amr.weights.PackedSortedWeights;
+import np2amr.weights.Quantization;
+import np2amr.weights.Weights;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ModelFileTest {
+
+    public ModelFileTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Triple<List<List<Token>>, Map<Integer, Set<Concept>>, Set<Integer>> t = Io.loadAlignment(Paths.get("testdata", "the_student_union.align"));
+        Config.conceptTable = t.getMiddle();
+        Config.labelIds = t.getRight();
+        Config.fts = Arrays.asList(new LemmaFeature(), new ConceptFeature());
+        Config.wndictPath = "wn";
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static ModelFile saveAndRead(Weights<Integer> ws) throws IOException {
+        Path path = Files.createTempDirectory("np2amr").resolve("model.bin");
+        ModelFile.save(path, ws);
+        assertTrue(ModelFile.isModelFile(path));
+        ModelFile model = ModelFile.read(path);
+        assertEquals(Config.weightsType, model.weightsType);
+        assertEquals(Config.preprocessorName, model.preprocessorName);
+        assertEquals("wn", model.wndictPath);
+        assertEquals(Arrays.asList(new LemmaFeature().getName(), new ConceptFeature().getName()), model.featureNames);
+        assertEquals(Config.stringIdMap.id2str, model.stringIdMap.id2str);
+        assertEquals(Config.labelIds, model.labelIds);
+        assertEquals(Config.conceptTable, model.conceptTable);
+        return model;
+    }
+
+    @Test
+    public void testDense() throws IOException {
+        Config.weightsType = Config.WeightsType.ARRAY;
+        ArrayWeights ws = new ArrayWeights(1000);
+        Random rand = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            ws.add(i, rand.nextFloat() - 0.5f);
+        }
+        Weights<Integer> loaded = saveAndRead(ws).weights;
+        assertTrue(loaded instanceof PackedArrayWeights);
+        for (int f = -2000; f < 2000; f++) {
+            assertEquals(ws.get(f), loaded.get(f), 0f);
+        }
+    }
+
+    @Test
+    public void testArrayAsSparse() throws IOException {
+        // mostly empty array is stored as sorted keys
+        Config.weightsType = Config.WeightsType.ARRAY;
+        ArrayWeights ws = new ArrayWeights(1000);
+        Random rand = new Random(0);
+        for (int i = 0; i < 300; i++) {
+            ws.add(rand.nextInt(), rand.nextFloat() - 0.5f);
+        }
+        Weights<Integer> loaded = saveAndRead(ws).weights;
+        assertTrue(loaded instanceof PackedSortedWeights);
+        for (int f = -2000; f < 2000; f++) {
+            assertEquals(ws.get(f), loaded.get(f), 0f);
+        }
+    }
+
+    @Test
+    public void testPruneAndQuantize() throws IOException {
+        Config.weightsType = Config.WeightsType.MAP;
+        OpenHashWeights ws = new OpenHashWeights();
+        Random rand = new Random(0);
+        for (int i = 0; i < 5000; i++) {
+            ws.add(rand.nextInt(), rand.nextFloat() * 2 - 1);
+        }
+        Path dir = Files.createTempDirectory("np2amr");
+        float threshold = 0.1f;
+        for (Quantization q: Quantization.values()) {
+            Path path = dir.resolve(q.toString());
+            ModelFile.save(path, ws, threshold, q);
+            Weights<Integer> loaded = ModelFile.read(path).weights;
+            // int8 error is at most half of the scale
+            float tolerance = q == Quantization.INT8 ? 0.5f / 127 : q == Quantization.FP16 ? 1e-3f : 0f;
+            ws.forEach((f, w) -> {
+                float expected = Math.abs(w) > threshold ? w : 0f;
+                assertEquals(expected, loaded.get(f), tolerance);
+            });
+        }
+        assertTrue(Files.size(dir.resolve("INT8")) < Files.size(dir.resolve("FP16")));
+        assertTrue(Files.size(dir.resolve("FP16")) < Files.size(dir.resolve("FLOAT32")));
+    }
+
+    @Test
+    public void testSparse() throws IOException {
+        Config.weightsType = Config.WeightsType.MAP;
+        OpenHashWeights ws = new OpenHashWeights();
+        Random rand = new Random(0);
+        for (int i = 0; i < 300; i++) {
+            ws.add(rand.nextInt(), rand.nextFloat() - 0.5f);
+        }
+        ws.add(0, 1f);
+        ws.add(Integer.MIN_VALUE, 2f);
+        ws.add(Integer.MAX_VALUE, 3f);
+        ws.add(7, 0f);
+        Weights<Integer> loaded = saveAndRead(ws).weights;
+        ws.forEach((f, w) -> assertEquals(w, loaded.get(f), 0f));
+        for (int f = -2000; f < 2000; f++) {
+            assertEquals(ws.get(f), loaded.get(f), 0f);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncated() throws IOException {
+        Config.weightsType = Config.WeightsType.ARRAY;
+        Path path = Files.createTempDirectory("np2amr").resolve("model.bin");
+        ModelFile.save(path, new ArrayWeights(1000));
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            fc.truncate(fc.size() - 4);
+        }
+        ModelFile.read(path);
+    }
+
+}
@@ -0,0 +1,72 @@
+package np2amr.preprocess;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConlluPreprocessorTest {
+
+    public ConlluPreprocessorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAnalyze() throws IOException {
+        Path path = Files.createTempFile("np2amr", ".conllu");
+        Files.write(path, Arrays.asList(
+                "# text = the student union",
+                "1\tthe\tthe\tDET\tDT\t_\t3\tdet\t_\t_",
+                "2\tstudent\tstudent\tNOUN\tNN\t_\t3\tcompound\t_\t_",
+                "3\tunion\tunion\tNOUN\tNN\t_\t0\troot\t_\t_",
+                "",
+                "1-2\tdon't\t_\t_\t_\t_\t_\t_\t_\t_",
+                "1\tdo\tdo\tAUX\t_\t_\t3\taux\t_\t_",
+                "2\tn't\tnot\tPART\t_\t_\t3\tadvmod\t_\t_",
+                "3\tgo\tgo\tVERB\t_\t_\t0\troot\t_\t_",
+                ""), StandardCharsets.UTF_8);
+        ConlluPreprocessor p = new ConlluPreprocessor(path);
+        assertEquals(2, p.size());
+
+        Analysis a = p.analyze(Arrays.asList("the", "student", "union"));
+        assertArrayEquals(new String[]{"the", "student", "union"}, a.lemmas);
+        assertArrayEquals(new String[]{"DT", "NN", "NN"}, a.poss);
+        assertArrayEquals(new int[]{3, 3, 0}, a.heads);
+        assertArrayEquals(new String[]{"det", "compound", "root"}, a.rels);
+
+        // multiword token is skipped, and UPOS is used without XPOS
+        a = p.analyze(Arrays.asList("do", "n't", "go"));
+        assertArrayEquals(new String[]{"AUX", "PART", "VERB"}, a.poss);
+        assertArrayEquals(new int[]{3, 3, 0}, a.heads);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownSentence() throws IOException {
+        Path path = Files.createTempFile("np2amr", ".conllu");
+        Files.write(path, Arrays.asList("1\tunion\tunion\tNOUN\tNN\t_\t0\troot\t_\t_", ""), StandardCharsets.UTF_8);
+        new ConlluPreprocessor(path).analyze(Arrays.asList("student"));
+    }
+
+}
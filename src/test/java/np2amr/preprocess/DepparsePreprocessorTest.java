@@ -0,0 +1,42 @@
+package np2amr.preprocess;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DepparsePreprocessorTest {
+
+    public DepparsePreprocessorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAnalyze() {
+        Analysis a = new DepparsePreprocessor().analyze(Arrays.asList("the", "student", "union"));
+        assertArrayEquals(new String[]{"the", "student", "union"}, a.lemmas);
+        assertArrayEquals(new String[]{"DT", "NN", "NN"}, a.poss);
+        assertArrayEquals(new int[]{3, 3, 0}, a.heads);
+        assertEquals("det", a.rels[0]);
+        assertEquals("root", a.rels[2]);
+    }
+
+}
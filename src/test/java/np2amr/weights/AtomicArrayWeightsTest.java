@@ -0,0 +1,56 @@
+package np2amr.weights;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AtomicArrayWeightsTest {
+    
+    public AtomicArrayWeightsTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        AtomicArrayWeights ws = new AtomicArrayWeights(8);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread th = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    ws.add(3, 1f);
+                    ws.add(-5, -1f);
+                }
+            });
+            threads.add(th);
+            th.start();
+        }
+        for (Thread th: threads) {
+            th.join();
+        }
+        // no update is lost
+        assertEquals(400000f, ws.get(3), 0f);
+        assertEquals(-400000f, ws.get(5), 0f);
+        assertEquals(0f, ws.get(4), 0f);
+    }
+
+}
@@ -0,0 +1,66 @@
+package np2amr.weights;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AveragedArrayWeightsTest {
+    
+    public AveragedArrayWeightsTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testSameAsSeparateArrays() throws IOException {
+        int size = 1 << 10;
+        AveragedArrayWeights ws = new AveragedArrayWeights(size);
+        AveragedWeightsPair expected = new AveragedWeightsPair(new ArrayWeights(size), new ArrayWeights(size));
+
+        Random rand = new Random(0);
+        int t = 1;
+        for (; t < 500; t++) {
+            for (int j = 0; j < 20; j++) {
+                int f = rand.nextInt();
+                float delta = rand.nextBoolean() ? 1 : -1;
+                ws.update(f, delta, t);
+                expected.update(f, delta, t);
+            }
+        }
+
+        Weights<Integer> avg = ws.averaged(t);
+        Weights<Integer> expectedAvg = expected.averaged(t);
+        for (int i = 0; i < size; i++) {
+            assertEquals(expected.current().get(i), ws.current().get(i), 0f);
+            assertEquals(expectedAvg.get(i), avg.get(i), 0f);
+        }
+
+        // saved files are identical
+        Path dir = Files.createTempDirectory("np2amr");
+        ws.save(dir.resolve("combined"), t);
+        expected.save(dir.resolve("separate"), t);
+        assertArrayEquals(Files.readAllBytes(dir.resolve("separate")), Files.readAllBytes(dir.resolve("combined")));
+    }
+
+}
@@ -0,0 +1,99 @@
+package np2amr.weights;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import np2amr.amr.Io;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CheckpointFileTest {
+
+    public CheckpointFileTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static ArrayWeights randomWeights(int size) {
+        ArrayWeights ws = new ArrayWeights(size);
+        Random rand = new Random(0);
+        for (int i = 0; i < size; i++) {
+            if (rand.nextBoolean()) {
+                ws.add(i, rand.nextFloat() - 0.5f);
+            }
+        }
+        return ws;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        // more pairs than fit in the buffer of the writer
+        int size = 1 << 16;
+        ArrayWeights ws = randomWeights(size);
+        Path path = Files.createTempDirectory("np2amr").resolve("ws");
+        ws.save(path, new ArrayWeights(size), 1);
+        assertFalse(Files.exists(path.resolveSibling("ws.tmp")));
+
+        ArrayWeights loaded = Io.loadArrayWeights(path);
+        assertEquals(size, loaded.size);
+        assertArrayEquals(ws.weights, loaded.weights, 0f);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncated() throws IOException {
+        Path path = Files.createTempDirectory("np2amr").resolve("ws");
+        randomWeights(1 << 10).save(path, new ArrayWeights(1 << 10), 1);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 8));
+        Io.loadArrayWeights(path);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCorrupted() throws IOException {
+        Path path = Files.createTempDirectory("np2amr").resolve("ws");
+        randomWeights(1 << 10).save(path, new ArrayWeights(1 << 10), 1);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+        Io.loadArrayWeights(path);
+    }
+
+    @Test
+    public void testOlderFormat() throws IOException {
+        // size followed by pairs, without magic and trailer
+        Path path = Files.createTempDirectory("np2amr").resolve("ws");
+        ByteBuffer buf = ByteBuffer.allocate(4 + 8 * 2);
+        buf.putInt(10);
+        buf.putInt(3).putFloat(1.5f);
+        buf.putInt(7).putFloat(-2f);
+        Files.write(path, buf.array());
+
+        ArrayWeights loaded = Io.loadArrayWeights(path);
+        assertEquals(10, loaded.size);
+        assertEquals(1.5f, loaded.get(3), 0f);
+        assertEquals(-2f, loaded.get(7), 0f);
+        assertEquals(0f, loaded.get(5), 0f);
+    }
+
+}
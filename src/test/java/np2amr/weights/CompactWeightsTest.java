@@ -0,0 +1,86 @@
+package np2amr.weights;
+
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompactWeightsTest {
+
+    public CompactWeightsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testDense() {
+        ArrayWeights ws = new ArrayWeights(1000);
+        Random rand = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            ws.add(i, rand.nextFloat() * 2 - 1);
+        }
+        for (Quantization q: Quantization.values()) {
+            ReadOnlyWeights compacted = CompactWeights.compact(ws, 0f, q);
+            assertTrue(compacted instanceof PackedArrayWeights);
+            // int8 error is at most half of the scale
+            float tolerance = q == Quantization.INT8 ? 0.5f / 127 : q == Quantization.FP16 ? 1e-3f : 0f;
+            for (int f = -2000; f < 2000; f++) {
+                assertEquals(ws.get(f), compacted.get(f), tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testSparse() {
+        OpenHashWeights ws = new OpenHashWeights();
+        Random rand = new Random(0);
+        for (int i = 0; i < 3000; i++) {
+            ws.add(rand.nextInt(), rand.nextFloat() * 2 - 1);
+        }
+        float threshold = 0.2f;
+        ReadOnlyWeights compacted = CompactWeights.compact(ws, threshold, Quantization.FP16);
+        assertTrue(compacted instanceof PackedSortedWeights);
+        ws.forEach((f, w) -> assertEquals(Math.abs(w) > threshold ? w : 0f, compacted.get(f), 1e-3f));
+    }
+
+    @Test
+    public void testError() {
+        ArrayWeights ws = new ArrayWeights(4);
+        ws.add(0, 1f);
+        ws.add(1, 0.5f);
+        ws.add(2, -0.25f);
+        ReadOnlyWeights compacted = CompactWeights.compact(ws, 0.3f, Quantization.FLOAT32);
+        assertEquals("max 0.250, mean 0.0833 over 3 weights", CompactWeights.error(ws, compacted));
+    }
+
+    @Test
+    public void testLargeWeightsFp16() {
+        ArrayWeights ws = new ArrayWeights(4);
+        ws.add(0, 1e6f);
+        ws.add(1, -70000f);
+        ws.add(2, 0.5f);
+        ReadOnlyWeights compacted = CompactWeights.compact(ws, 0f, Quantization.FP16);
+        for (int f = 0; f < 4; f++) {
+            assertFalse(Float.isInfinite(compacted.get(f)));
+            assertEquals(ws.get(f), compacted.get(f), 1e6f * 1e-3f);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package np2amr.weights;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import np2amr.amr.Io;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OpenHashWeightsTest {
+    
+    public OpenHashWeightsTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAddAndGet() {
+        OpenHashWeights ws = new OpenHashWeights(4);
+        assertEquals(0f, ws.get(3), 0f);
+        ws.add(3, 1.5f);
+        ws.add(3, 1f);
+        ws.add(0, -2f);     // free key is stored separately
+        ws.add(-7, 4f);
+        assertEquals(2.5f, ws.get(3), 0f);
+        assertEquals(-2f, ws.get(0), 0f);
+        assertEquals(4f, ws.get(-7), 0f);
+        assertEquals(0f, ws.get(8), 0f);
+        assertEquals(3, ws.size());
+    }
+
+    @Test
+    public void testSameAsMapWeights() {
+        OpenHashWeights ws = new OpenHashWeights(2);
+        MapWeights expected = new MapWeights();
+        Random rand = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            int f = rand.nextInt(20000) - 10000;
+            float num = rand.nextFloat();
+            ws.add(f, num);
+            expected.add(f, num);
+        }
+        assertEquals(expected.weights.size(), ws.size());
+        assertTrue(ws.size() <= ws.capacity() / 2 + 1);
+        for (Map.Entry<Integer, Float> e: expected.weights.entrySet()) {
+            assertEquals(e.getValue(), ws.get((int)e.getKey()), 0f);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        OpenHashWeights ws = new OpenHashWeights();
+        OpenHashWeights wsAvg = new OpenHashWeights();
+        Map<Integer, Float> expected = new HashMap<>();
+        int t = 4;
+        for (int f = -50; f < 50; f++) {
+            ws.add(f, f);
+            wsAvg.add(f, 2 * f);
+            expected.put(f, f - 2f * f / t);
+        }
+
+        Path dir = Files.createTempDirectory("np2amr");
+        Path path = dir.resolve("ws");
+        ws.save(path, wsAvg, t);
+        OpenHashWeights loaded = Io.loadMapWeights(path);
+
+        assertEquals(expected.size() - 1, loaded.size());   // zero weight of feature 0 is not saved
+        for (Map.Entry<Integer, Float> e: expected.entrySet()) {
+            assertEquals(e.getValue(), loaded.get((int)e.getKey()), 0f);
+        }
+    }
+
+}
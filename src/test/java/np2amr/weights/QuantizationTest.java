@@ -0,0 +1,78 @@
+package np2amr.weights;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class QuantizationTest {
+
+    public QuantizationTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testHalf() {
+        assertEquals(0x3C00, Quantization.toHalf(1f));
+        assertEquals((short)0xC000, Quantization.toHalf(-2f));
+        assertEquals(0x7BFF, Quantization.toHalf(65504f));
+        assertEquals(0x7C00, Quantization.toHalf(1e6f));
+        assertEquals(0x0001, Quantization.toHalf(0x1p-24f));
+        assertEquals(0x3555, Quantization.toHalf(1f / 3));
+        assertEquals(1f, Quantization.fromHalf((short)0x3C00), 0f);
+        assertEquals(0x1p-24f, Quantization.fromHalf((short)0x0001), 0f);
+
+        // every half except NaN converts back to itself
+        for (int h = 0; h < 1 << 16; h++) {
+            float f = Quantization.fromHalf((short)h);
+            if (!Float.isNaN(f)) {
+                assertEquals(h, Quantization.toHalf(f) & 0xFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testHalfRoundsToNearestEven() {
+        // 1 + 2^-11 is halfway between 1 and the next half, 1 + 2^-10
+        assertEquals(0x3C00, Quantization.toHalf(1f + 0x1p-11f));
+        assertEquals(0x3C01, Quantization.toHalf(1f + 0x1p-11f + 0x1p-20f));
+        assertEquals(0x3C02, Quantization.toHalf(1f + 3 * 0x1p-11f));
+    }
+
+    @Test
+    public void testInt8() {
+        float scale = Quantization.INT8.scale(2f);
+        assertEquals(2f, Quantization.INT8.round(2f, scale), 0f);
+        assertEquals(-2f, Quantization.INT8.round(-2f, scale), 0f);
+        assertEquals(0f, Quantization.INT8.round(0.001f, scale), 0f);
+        assertEquals(1f, Quantization.INT8.round(1f, scale), scale / 2);
+    }
+
+    @Test
+    public void testHalfScale() {
+        assertEquals(1f, Quantization.FP16.scale(1000f), 0f);
+        // weights beyond half precision are scaled instead of becoming infinity
+        float scale = Quantization.FP16.scale(1e6f);
+        assertEquals(1e6f, Quantization.FP16.round(1e6f, scale), 1e6f * 1e-3f);
+        assertEquals(-1e6f, Quantization.FP16.round(-1e6f, scale), 1e6f * 1e-3f);
+        assertEquals(1f, Quantization.FP16.round(1f, scale), scale);
+    }
+
+}